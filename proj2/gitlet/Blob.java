@@ -1,15 +1,39 @@
 package gitlet;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-
-import static gitlet.Repository.GITLET_OBJECTS;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Blob is a dump file for specific object.
- * The target file contents and its metadata(such as file path) can create sha-1 id, which can represent the file with its version info.
+ * Only the target file contents create sha-1 id, which can represent the file with its version info.
+ * The file path is kept in the commit (file path <--> blob id), not in the blob,
+ * so the same contents at two paths (or a renamed file) are stored only once.
  * The contents of the target file is deserialized to a sequence of bytes.
  *
  * The first two digit represents the folder name for the blob file.
@@ -20,6 +44,24 @@ import static gitlet.Repository.GITLET_OBJECTS;
  *      - file   name: 3d51a65ce82240ffaed6c4f396c9ddcfa608f7
  *
  * Blob is a target concept for "persistence", which should be stored locally as a separate file.
+ *
+ * Format of the blob object
+ *      codec(1 byte) | contents (compressed by the codec, see Codec)
+ *      - already-compressed media (e.g. png, zip) are stored as they are
+ *
+ *      or, for a new version of a file which was already added ("delta blob")
+ *      DELTA(1 byte) | base blob id(20 bytes) | depth(1 byte) | codec(1 byte)
+ *          | delta from the contents of the base blob (compressed by the codec, see Delta)
+ *      - depth: the number of delta blobs in the chain down to a full blob
+ *      - a full blob is saved instead, every "core.deltaDepth" versions (default 50)
+ *        or if the delta is not smaller than half of the contents
+ *      - files larger than "core.deltaMaxSize" bytes (default 16MB) are always saved in full,
+ *        since a delta needs the file and its base in memory (see DELTA_MAX_SIZE)
+ *
+ * The contents are hashed and compressed as a stream ("git add"),
+ * and decompressed as a stream into the working directory ("git checkout"),
+ * so the memory needed does not depend on the file size (see BUFFER_SIZE).
+ * Blobs saved by older versions of gitlet are serialized Blob instances.
  * --> "implements Serializable"
  *
  *
@@ -37,9 +79,33 @@ import static gitlet.Repository.GITLET_OBJECTS;
  */
 public class Blob implements Serializable {
     /**
-     * The target file to convert to blob object
+     * Same as the blobs which were saved with the file path,
+     * so that they can still be loaded by "gitlet migrate".
+     */
+    private static final long serialVersionUID = -57067202750176406L;
+
+    /** Size of the buffer for streaming the contents */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The first byte of a delta blob (not a codec id) */
+    private static final int DELTA = 0x10;
+
+    /** The longest chain of delta blobs (the depth is saved in 1 byte) */
+    private static final int MAX_DEPTH = 255;
+
+    /**
+     * Default of "core.deltaMaxSize": a delta reads the file and its base in memory,
+     * and saveFiles saves the files in parallel (one file and one base per thread)
+     */
+    private static final long DELTA_MAX_SIZE = 16L << 20;
+
+    /**
+     * saveFiles appends the new blobs to the pack when it saves at least PACK_MIN_FILES files,
+     * PACK_CHUNK bytes of files at a time; only the files up to PACK_MAX_SIZE bytes are read in memory
      */
-    private File srcFile;
+    private static final int PACK_MIN_FILES = 256;
+    private static final long PACK_CHUNK = 32L << 20;
+    private static final long PACK_MAX_SIZE = 1L << 20;
 
     /**
      * The contents of the file with byte sequence
@@ -52,57 +118,344 @@ public class Blob implements Serializable {
     private String id;
 
     /**
-     * The actual file location of the Blob object
+     * Constructor for Blob class
+     * creates a blob instance for the given contents.
+     *
+     * @param content
      */
-    private File blobFile;
+    public Blob(byte[] content) {
+        this.content = content;
+        this.id = Utils.sha1(this.content);
+    }
 
-    // The directory name for blob file
-    String dir;
+    /**
+     * Saves this blob instance inside the .gitlet folder
+     * -- "Persistence"
+     */
+    public void saveBlob() {
+        save(new ByteArrayInputStream(this.content), Codec.defaultCodec());
+    }
 
-    // the file name for blob file
-    String file;
+    /**
+     * Saves the contents of given file as a blob inside the .gitlet folder,
+     * and returns the blob id.
+     * The file is read only once: it is hashed and compressed at the same time.
+     *
+     * @param file
+     * @return
+     */
+    public static String saveFile(File file) {
+        return saveFile(file, null);
+    }
 
     /**
-     * Constructor for Blob class
-     * creates a blob instance for the given File.
+     * Saves the contents of given file as a blob inside the .gitlet folder,
+     * and returns the blob id.
+     * If BASEID is the blob of an older version of the file,
+     * the contents may be saved as a delta from the base blob.
+     *
+     * @param file
+     * @param baseId    the blob id of the older version (null: none)
+     * @return
+     */
+    public static String saveFile(File file, String baseId) {
+        if (!file.exists()) {
+            throw Utils.error("File does not exist: %s", file.getPath());
+        }
+        Codec codec = Codec.forFile(file.getName());
+        try {
+            if (baseId != null && codec != Codec.STORE
+                    && file.length() <= Config.getLong("core.deltaMaxSize", DELTA_MAX_SIZE)) {
+                String blobId = saveDelta(Files.readAllBytes(file.toPath()), baseId, codec);
+                if (blobId != null) {
+                    return blobId;
+                }
+            }
+            try (InputStream in = new FileInputStream(file)) {
+                return save(in, codec);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", file.getPath(), excp.getMessage());
+        }
+    }
+
+    /**
+     * Saves the contents of many files as blobs, and returns their blob ids (file path <--> blob id)
+     *      - the files are read, hashed and compressed in parallel (fork-join)
+     *      - with PACK_MIN_FILES files or more, the new blobs of the small files with no base
+     *        are appended to the pack, PACK_CHUNK bytes at a time (see ObjectStore.PackWriter)
+     *      - the other files are saved by saveFile, as loose objects (and delta blobs)
      *
-     * @param srcFile
+     * @param files
+     * @param bases     file path <--> the blob id of the older version (see saveFile)
+     * @return
      */
-    public Blob(File srcFile) {
-        this.srcFile = srcFile;
-        if (!srcFile.exists()) {
-            // System.out.println("ERROR Blob: " + srcFile.getPath());
-            System.exit(0);
+    static Map<String, String> saveFiles(List<File> files, Map<String, String> bases) {
+        List<File> packed = new ArrayList<>();
+        List<File> loose = new ArrayList<>();
+        for (File file : files) {
+            boolean small = bases.get(file.getPath()) == null && file.length() <= PACK_MAX_SIZE;
+            (small && files.size() >= PACK_MIN_FILES ? packed : loose).add(file);
         }
-        this.content = Utils.readContents(srcFile);
-        this.id = Utils.sha1(this.srcFile.getPath(), this.content);
 
-        this.dir = id.substring(0, 2);
-        this.file = id.substring(2);
-        this.blobFile = Utils.join(GITLET_OBJECTS, dir, file);
+        Map<String, String> ids = new ConcurrentHashMap<>();
+        loose.parallelStream().forEach(file ->
+                ids.put(file.getPath(), saveFile(file, bases.get(file.getPath()))));
+        if (packed.isEmpty()) {
+            return ids;
+        }
+
+        ObjectStore.PackWriter writer = new ObjectStore.PackWriter();
+        int start = 0;
+        while (start < packed.size()) {
+            int end = start;
+            long size = 0;
+            while (end < packed.size() && (end == start || size < PACK_CHUNK)) {
+                size += packed.get(end).length();
+                end += 1;
+            }
+            // compressed in parallel, and appended in order
+            List<Encoded> objects = packed.subList(start, end).parallelStream()
+                    .map(Encoded::new).collect(Collectors.toList());
+            for (Encoded object : objects) {
+                ids.put(object.path, object.id);
+                writer.add(object.id, object.data);
+            }
+            start = end;
+        }
+        writer.finish();
+        return ids;
+    }
+
+    /** The blob of a file, compressed in memory (see saveFiles) */
+    private static class Encoded {
+        final String path;
+        final String id;
+
+        /** codec id | compressed contents */
+        final byte[] data;
+
+        Encoded(File file) {
+            try {
+                byte[] content = Files.readAllBytes(file.toPath());
+                Codec codec = Codec.forFile(file.getName());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 16);
+                bytes.write(codec.id);
+                codec.compress(content, bytes);
+                this.path = file.getPath();
+                this.id = ObjectStore.toHex(newDigest().digest(content));
+                this.data = bytes.toByteArray();
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read %s: %s", file.getPath(), excp.getMessage());
+            }
+        }
     }
 
     /**
-     * Saves this blob instance inside the .gitlet folder
-     * -- "Persistence"
+     * Saves given contents as a delta blob from the base blob, and returns the blob id
+     * -- if the contents should be saved in full -> return null
+     *
+     * @param content
+     * @param baseId
+     * @param codec
+     * @return
      */
-    public void saveBlob() {
-        File folder = Utils.join(GITLET_OBJECTS, this.dir);
-        folder.mkdir();
-        Utils.writeObject(this.blobFile, this);
+    private static String saveDelta(byte[] content, String baseId, Codec codec) throws IOException {
+        String blobId = Utils.sha1(content);
+        if (ObjectStore.contains(blobId)) {
+            return blobId;
+        }
+        if (!ObjectStore.contains(baseId)) {
+            return null;
+        }
+        int depth = depthOf(baseId) + 1;
+        if (depth > Math.min(Config.getLong("core.deltaDepth", 50), MAX_DEPTH)) {
+            return null;
+        }
+        byte[] delta = Delta.create(loadBlob(baseId).content, content, content.length / 2);
+        if (delta == null) {
+            return null;
+        }
+
+        File tmp = ObjectStore.newTempFile();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            out.write(DELTA);
+            out.write(ObjectStore.toRaw(baseId));
+            out.write(depth);
+            out.write(codec.id);
+            try (OutputStream compressed = codec.compress(out)) {
+                compressed.write(delta);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw excp;
+        }
+        ObjectStore.install(tmp, blobId);
+        return blobId;
+    }
+
+    /**
+     * Returns the id of the base blob of the delta blob with given id
+     * -- if the object is not a delta blob -> return null
+     *
+     * @param id
+     * @return
+     */
+    static String deltaBase(String id) {
+        try (DataInputStream in = new DataInputStream(ObjectStore.open(id))) {
+            if (in.read() != DELTA) {
+                return null;
+            }
+            byte[] raw = new byte[ObjectStore.RAW_LENGTH];
+            in.readFully(raw);
+            return ObjectStore.toHex(raw);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read blob %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of delta blobs in the chain from the blob with given id
+     * -- 0 for a full blob
+     *
+     * @param id
+     * @return
+     */
+    private static int depthOf(String id) throws IOException {
+        if (ObjectStore.header(id) != DELTA) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(ObjectStore.open(id))) {
+            in.skipNBytes(1 + ObjectStore.RAW_LENGTH);
+            return in.readUnsignedByte();
+        }
+    }
+
+    /**
+     * Rebuilds the contents of the delta blob with given id:
+     * the full blob at the end of the chain (or a cached one) is loaded,
+     * and then each delta is applied to it. Every rebuilt version is cached.
+     *
+     * @param id
+     * @return
+     */
+    private static byte[] loadDelta(String id) throws IOException {
+        ArrayDeque<String> chain = new ArrayDeque<>();
+        String baseId = id;
+        byte[] raw = new byte[ObjectStore.RAW_LENGTH];
+        while (!ObjectCache.contains(baseId) && ObjectStore.header(baseId) == DELTA) {
+            chain.push(baseId);
+            try (DataInputStream in = new DataInputStream(ObjectStore.open(baseId))) {
+                in.readUnsignedByte();
+                in.readFully(raw);
+                baseId = ObjectStore.toHex(raw);
+            }
+        }
+
+        byte[] content = loadBlob(baseId).content;
+        while (!chain.isEmpty()) {
+            String deltaId = chain.pop();
+            try (DataInputStream in = new DataInputStream(ObjectStore.open(deltaId))) {
+                in.skipNBytes(1 + ObjectStore.RAW_LENGTH + 1);
+                Codec codec = Codec.byId(in.readUnsignedByte());
+                if (codec == null) {
+                    throw new IOException("unknown codec");
+                }
+                try (InputStream delta = codec.decompress(new BufferedInputStream(in, BUFFER_SIZE))) {
+                    content = Delta.apply(content, delta);
+                }
+            }
+            if (!chain.isEmpty()) {
+                cache(new Blob(content, deltaId));
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Saves the contents of given stream as a blob: input -> sha-1 digest -> codec -> object file
+     *
+     * @param input
+     * @param codec
+     * @return the blob id
+     */
+    private static String save(InputStream input, Codec codec) {
+        MessageDigest md = newDigest();
+        File tmp = ObjectStore.newTempFile();
+        try (DigestInputStream in = new DigestInputStream(input, md);
+             OutputStream out = ObjectStore.newObjectStream(tmp, codec)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw Utils.error("Cannot save blob: %s", excp.getMessage());
+        }
+        String blobId = ObjectStore.toHex(md.digest());
+        ObjectStore.install(tmp, blobId);
+        return blobId;
     }
 
     /**
      * Loads blob instance with given blobId
+     * -- the whole contents are loaded in memory, use open() or writeContents() for large files.
      *
      * @param id
      * @return
      */
     public static Blob loadBlob(String id) {
-        String dir = id.substring(0, 2);
-        String file = id.substring(2);
-        File blobFile = Utils.join(GITLET_OBJECTS, dir, file);
-        return Utils.readObject(blobFile, Blob.class);
+        Blob blob = ObjectCache.get(id, Blob.class);
+        if (blob != null) {
+            return blob;
+        }
+        try {
+            if (ObjectStore.header(id) == DELTA) {
+                return cache(new Blob(loadDelta(id), id));
+            }
+            try (InputStream in = open(id)) {
+                return cache(new Blob(in.readAllBytes(), id));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read blob %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Caches given blob (only if it is small enough, see ObjectCache), and returns it
+     *
+     * @param blob
+     * @return
+     */
+    private static Blob cache(Blob blob) {
+        ObjectCache.put(blob.id, blob, 64 + blob.content.length);
+        return blob;
+    }
+
+    /**
+     * Constructor for Blob class, for the contents which were loaded with the id
+     *
+     * @param content
+     * @param id
+     */
+    private Blob(byte[] content, String id) {
+        this.content = content;
+        this.id = id;
+    }
+
+    /**
+     * Returns a stream of the contents of the blob with given id
+     *
+     * @param id
+     * @return
+     */
+    public static InputStream open(String id) {
+        if (ObjectCache.contains(id) || ObjectStore.header(id) == DELTA) {
+            return new ByteArrayInputStream(loadBlob(id).content);
+        }
+        InputStream in = ObjectStore.openDecoded(id);
+        if (in == null) {
+            // blob of older versions
+            return new ByteArrayInputStream(ObjectStore.readObject(id, Blob.class).content);
+        }
+        return in;
     }
 
     /**
@@ -132,35 +485,59 @@ public class Blob implements Serializable {
      * @return
      */
     public String getId() {
-        return this.id; // Utils.sha1(this.srcFile.getPath(), this.content)
+        return this.id; // Utils.sha1(this.content)
     }
 
     /**
      * Sha-1 id generator for given File
+     * -- the file is read as a stream, not loaded in memory at once.
      *
      * @param file
      * @return
      */
     public static String generateId(File file) {
-        String path = file.getPath();
-        byte[] content = Utils.readContents(file);
-        return Utils.sha1(path, content);
+        MessageDigest md = newDigest();
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), md)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ObjectStore.toHex(md.digest());
     }
 
-    /**
-     * Getter of blob file
-     * @return
-     */
-    public File getBlobFile() {
-        return this.blobFile;
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 
     /**
-     * Loads the saved blob into the working directory
+     * Writes the contents of the blob with given id into the working directory
+     *      - stored    : FileChannel.transferTo from the object to the file
+     *      - compressed: decompressed through a fixed-size buffer
      *
-     * @param blob
+     * @param id
+     * @param file  the file to which the blob is written
      */
-    public static void writeContents(Blob blob) {
-        Utils.writeContents(Utils.join(blob.srcFile.getPath()), blob.getContentRaw());
+    public static void writeContents(String id, File file) {
+        file.getParentFile().mkdirs();     // the file can be in a subdirectory
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (ObjectStore.codecOf(id) == Codec.STORE) {
+                ObjectStore.transferTo(id, 1, out);
+                return;
+            }
+            try (ReadableByteChannel in = Channels.newChannel(open(id))) {
+                long position = 0;
+                long n;
+                while ((n = out.transferFrom(in, position, BUFFER_SIZE)) > 0) {
+                    position += n;
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", file.getPath(), excp.getMessage());
+        }
     }
 }
@@ -2,7 +2,7 @@ package gitlet;
 
 import gitlet.Repository;
 import java.io.File;
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 
 /**
@@ -14,15 +14,18 @@ import java.io.Serializable;
  *
  *  The initial Branch for the user will be "master"!
  *
+ *  The branch file(.gitlet/refs/heads/[name]) only stores the 40-digit sha-1 id of the commit,
+ *  and the commit itself is resolved through the commit cache (see Commit.loadCommit).
+ *
  * @author Gaon Choi
  *
  */
-public class Branch implements Serializable {
+public class Branch {
     // branch name
     private String name;
 
-    // the commit to which the branch points
-    private Commit pointer;
+    // sha-1 id of the commit to which the branch points
+    private String pointer;
 
     /**
      * Constructor for Branch class
@@ -30,8 +33,17 @@ public class Branch implements Serializable {
      * @param p
      */
     public Branch(String name, Commit p) {
+        this(name, p.getId());
+    }
+
+    /**
+     * Constructor for Branch class
+     * @param name
+     * @param commitId
+     */
+    public Branch(String name, String commitId) {
         this.name = name;
-        this.pointer = p;
+        this.pointer = commitId;
     }
 
     /**
@@ -40,8 +52,7 @@ public class Branch implements Serializable {
      * @param p
      */
     public Branch(Commit p) {
-        this.name = "master";
-        this.pointer = p;
+        this("master", p);
     }
 
     /**
@@ -57,31 +68,45 @@ public class Branch implements Serializable {
      * @return
      */
     public Commit getPointer() {
+        return Commit.loadCommit(this.pointer);
+    }
+
+    /**
+     * Getter for the sha-1 id of the commit, to which this branch points
+     * @return
+     */
+    public String getPointerId() {
         return this.pointer;
     }
 
     /**
      * Loads a branch with given name
      * -- if no branch found -> return null
+     * -- the branch saved by older versions of gitlet (a serialized Branch instance) is not read:
+     *    error, so that the repository is migrated first (see Migration)
      *
      * @param name
      * @return
      */
     public static Branch loadBranch(String name) {
-        File file = Utils.join(Repository.GITLET_HEADS, name);
-        if (file.exists()) {
-            return Utils.readObject(file, Branch.class);
+        byte[] contents = Journal.read(Utils.join(Repository.GITLET_HEADS, name));
+        if (contents != null && Encoding.startsWith(contents, Encoding.LEGACY)) {
+            throw Utils.error(Repository.OLDER_FORMAT);
+        }
+        if (contents != null) {
+            String commitId = new String(contents, StandardCharsets.US_ASCII).trim();
+            return new Branch(name, commitId);
         }
         return null;
     }
 
     /**
      * Saves this branch instance inside the .gitlet folder
-     * -- "Persistence"
+     * -- "Persistence" (saved when the command ends, see Journal)
      */
     public void saveBranch() {
         File file = Utils.join(Repository.GITLET_HEADS, name);
-        Utils.writeObject(file, this);
+        Journal.write(file, this.pointer.getBytes(StandardCharsets.US_ASCII));
     }
 
     /**
@@ -89,6 +114,6 @@ public class Branch implements Serializable {
      * @param p
      */
     public void setPointer(Commit p) {
-        this.pointer = p;
+        this.pointer = p.getId();
     }
 }
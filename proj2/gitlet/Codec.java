@@ -0,0 +1,433 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Codec
+ *  The compression of an object in .gitlet/objects.
+ *  Every object starts with the id of its codec (1 byte), so objects with different codecs
+ *  can live in the same repository.
+ *
+ *      - STORE  : not compressed (for media which are already compressed, e.g. png, zip)
+ *      - DEFLATE: deflate (default)
+ *      - LZ     : fast LZ77 compression without entropy coding (LZ4-like)
+ *
+ *  The default codec is set by "core.compression" in .gitlet/config (store / deflate / lz).
+ *
+ * @author Gaon Choi
+ */
+enum Codec {
+    STORE(0),
+    DEFLATE(1),
+    LZ(2);
+
+    /** The id written in front of the object */
+    final int id;
+
+    /** The files with these extensions are already compressed -> STORE */
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "mov", "avi", "mkv",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "jar", "pdf", "docx", "xlsx", "pptx");
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the codec with given id
+     * -- if no codec found -> return null
+     *
+     * @param id
+     * @return
+     */
+    static Codec byId(int id) {
+        for (Codec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the default codec of the repository ("core.compression")
+     *
+     * @return
+     */
+    static Codec defaultCodec() {
+        String name = Config.get("core.compression", "deflate");
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException excp) {
+            return DEFLATE;
+        }
+    }
+
+    /**
+     * Returns the codec for the file with given name
+     * -- already-compressed media are stored as they are
+     *
+     * @param name
+     * @return
+     */
+    static Codec forFile(String name) {
+        int dot = name.lastIndexOf('.');
+        String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return COMPRESSED_EXTENSIONS.contains(ext) ? STORE : defaultCodec();
+    }
+
+    /**
+     * Returns a stream which compresses the data written to it into OUT.
+     * The returned stream must be closed to write the remaining data (OUT is closed too).
+     *
+     * @param out
+     * @return
+     */
+    OutputStream compress(OutputStream out) {
+        switch (this) {
+            case DEFLATE:
+                return new DeflaterOutputStream(out, new Deflater(), Blob.BUFFER_SIZE);
+            case LZ:
+                return new LzOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Compresses the whole DATA into OUT
+     * -- for many small objects: the Deflater of each thread is reused,
+     *    since creating one costs more than compressing a small file
+     *
+     * @param data
+     * @param out
+     */
+    void compress(byte[] data, ByteArrayOutputStream out) throws IOException {
+        if (this != DEFLATE) {
+            try (OutputStream stream = compress(out)) {
+                stream.write(data);
+            }
+            return;
+        }
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[Math.min(Blob.BUFFER_SIZE, data.length + 64)];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+    }
+
+    /** The Deflater of each thread (see compress) */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+
+    /**
+     * Returns a stream which decompresses the data read from IN
+     *
+     * @param in
+     * @return
+     */
+    InputStream decompress(InputStream in) {
+        switch (this) {
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            case LZ:
+                return new LzInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /* LZ CODEC */
+
+    /** The data is compressed by blocks of this size */
+    private static final int LZ_BLOCK = 64 * 1024;
+
+    /** The shortest match to be encoded */
+    private static final int MIN_MATCH = 4;
+
+    /** Bits of the hash table of 4-byte sequences */
+    private static final int HASH_BITS = 14;
+
+    /**
+     * Stream format of LZ
+     *      { rawLength(int) | compressedLength(int) | block }* | 0(int)
+     *      - compressedLength is -1 if the block could not be compressed (stored as it is)
+     *
+     * Block format: a series of sequences (same as LZ4)
+     *      token(1 byte: literal length 4 bits | match length - 4, 4 bits)
+     *      | literals | offset(2 bytes) ...
+     *      - a length of 15 continues with bytes of 255 until a byte less than 255
+     *      - the last sequence has only literals
+     */
+    private static class LzOutputStream extends OutputStream {
+        private final byte[] block = new byte[LZ_BLOCK];
+        private final byte[] compressed = new byte[LZ_BLOCK];
+        private final int[] table = new int[1 << HASH_BITS];
+        private final DataOutputStream data;
+        private int size;
+        private boolean closed;
+
+        LzOutputStream(OutputStream out) {
+            this.data = new DataOutputStream(new BufferedOutputStream(out, Blob.BUFFER_SIZE));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, LZ_BLOCK - size);
+                System.arraycopy(b, off, block, size, n);
+                size += n;
+                off += n;
+                len -= n;
+                if (size == LZ_BLOCK) {
+                    writeBlock();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                writeBlock();
+                data.writeInt(0);
+                data.close();
+                closed = true;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            int n = compressBlock(block, size, compressed, table);
+            data.writeInt(size);
+            if (n < size) {
+                data.writeInt(n);
+                data.write(compressed, 0, n);
+            } else {
+                data.writeInt(-1);
+                data.write(block, 0, size);
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * Reads the stream written by LzOutputStream
+     */
+    private static class LzInputStream extends InputStream {
+        private final DataInputStream in;
+        private final byte[] block = new byte[LZ_BLOCK];
+        private byte[] compressed = new byte[0];
+        private int size;
+        private int pos;
+        private boolean eof;
+
+        LzInputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == size && !readBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, size - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        private boolean readBlock() throws IOException {
+            if (eof) {
+                return false;
+            }
+            int rawLength = in.readInt();
+            if (rawLength == 0) {
+                eof = true;
+                return false;
+            }
+            if (rawLength < 0 || rawLength > LZ_BLOCK) {
+                throw new IOException("corrupted LZ block");
+            }
+            int length = in.readInt();
+            if (length < 0) {
+                in.readFully(block, 0, rawLength);
+            } else {
+                if (compressed.length < length) {
+                    compressed = new byte[length];
+                }
+                in.readFully(compressed, 0, length);
+                decompressBlock(compressed, length, block, rawLength);
+            }
+            size = rawLength;
+            pos = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Compresses SRC[0..LENGTH) into DST, and returns the compressed size.
+     * (greedy matching with a hash table of 4-byte sequences)
+     * -- returns LENGTH if the compressed data would not be smaller than SRC
+     */
+    private static int compressBlock(byte[] src, int length, byte[] dst, int[] table) {
+        Arrays.fill(table, -1);
+        int op = 0;
+        int anchor = 0;
+        int i = 0;
+        int limit = length - MIN_MATCH;
+        while (i <= limit) {
+            int seq = readInt(src, i);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > 0xffff || readInt(src, ref) != seq) {
+                i += 1;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < length && src[ref + matchLength] == src[i + matchLength]) {
+                matchLength += 1;
+            }
+            op = writeSequence(src, anchor, i - anchor, dst, op, matchLength - MIN_MATCH);
+            if (op < 0 || op + 3 + matchLength / 255 > dst.length) {
+                return length;
+            }
+            dst[op++] = (byte) (i - ref);
+            dst[op++] = (byte) ((i - ref) >>> 8);
+            op = writeLength(dst, op, matchLength - MIN_MATCH);
+            i += matchLength;
+            anchor = i;
+        }
+        op = writeSequence(src, anchor, length - anchor, dst, op, 0);
+        return op < 0 ? length : Math.min(op, length);
+    }
+
+    /**
+     * Writes the token and the literals of a sequence, and returns the new position of DST
+     * -- returns -1 if DST doesn't have enough room
+     */
+    private static int writeSequence(byte[] src, int start, int literals, byte[] dst, int op,
+                                     int matchLength) {
+        if (op + 2 + literals + literals / 255 > dst.length) {
+            return -1;
+        }
+        dst[op++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchLength, 15));
+        if (literals >= 15) {
+            op = writeExtra(dst, op, literals - 15);
+        }
+        System.arraycopy(src, start, dst, op, literals);
+        return op + literals;
+    }
+
+    /**
+     * Writes the rest of the match length (after the token), and returns the new position of DST
+     */
+    private static int writeLength(byte[] dst, int op, int matchLength) {
+        if (matchLength >= 15) {
+            op = writeExtra(dst, op, matchLength - 15);
+        }
+        return op;
+    }
+
+    private static int writeExtra(byte[] dst, int op, int n) {
+        while (n >= 255) {
+            dst[op++] = (byte) 255;
+            n -= 255;
+        }
+        dst[op++] = (byte) n;
+        return op;
+    }
+
+    /**
+     * Decompresses SRC[0..LENGTH) into DST, which must become RAWLENGTH bytes
+     */
+    private static void decompressBlock(byte[] src, int length, byte[] dst, int rawLength)
+            throws IOException {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < length) {
+                int token = src[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == length) {
+                    // the last sequence has only literals
+                    break;
+                }
+                int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLength = token & 0xf;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > op) {
+                    throw new IOException("corrupted LZ block");
+                }
+                for (int k = 0; k < matchLength; k++) {
+                    dst[op] = dst[op - offset];
+                    op += 1;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException excp) {
+            throw new EOFException("corrupted LZ block");
+        }
+        if (op != rawLength || ip != length) {
+            throw new IOException("corrupted LZ block");
+        }
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8)
+                | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+    }
+}
@@ -1,14 +1,13 @@
 package gitlet;
 
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
-import static gitlet.Repository.GITLET_OBJECTS;
-
 /**
  * Represents a gitlet Commit object.
  *
@@ -16,6 +15,9 @@ import static gitlet.Repository.GITLET_OBJECTS;
  *  @author Gaon Choi
  */
 public class Commit implements Serializable, Cloneable {
+    /** Fixed, so that the commits saved by older versions of gitlet can still be loaded. */
+    private static final long serialVersionUID = 5939046658137663858L;
+
     /** The SHA id of this Commit. */
     /**
      * GIT SHA-1
@@ -36,12 +38,38 @@ public class Commit implements Serializable, Cloneable {
      * Tracked File List
      * This hashmap represents the whole file list when this commit was created ("git commit").
      * (+): insert  /  (-): delete
+     * -- loaded from the tree when it is needed, for the commits saved with a tree
      */
     private HashMap<String, String> fmap;
 
+    /**
+     * The id of the tree of the working directory (see Tree)
+     * -- null for the initial commit and the commits saved by older versions, which only have the file list
+     */
+    private String treeId;
+
+    /** The tree built from the file list of a commit without a tree (not saved with the commit) */
+    private transient String flatTreeId;
+
     // link: https://www.java67.com/2013/01/how-to-format-date-in-java-simpledateformat-example.html
     // (sample) Thu Jan 1 09:00:00 1970 +0900
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
+    // -- immutable, so it can be shared (unlike SimpleDateFormat)
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH)
+            .withZone(ZoneId.systemDefault());
+
+    /** Length of the beginning of a serialized Commit: stream header + class name "gitlet.Commit" */
+    private static final int SERIALIZED_HEADER = 4 + 4 + "gitlet.Commit".length();
+
+    /**
+     * Binary format of a commit (see Encoding)
+     *      "CMIT" | version(1 byte) | id | date(signed varint, milliseconds) | message(string)
+     *          | N(varint) | { parent id }* | files
+     *      - files (version 1): paths of the tracked files | { blob id }* (in the order of the paths)
+     *      - files (version 2): 1 | tree id, or 0 | the files of version 1 (a commit without a tree)
+     * Commits saved by older versions of gitlet are serialized Commit instances.
+     */
+    private static final byte[] MAGIC = {'C', 'M', 'I', 'T'};
+    private static final int FORMAT_VERSION = 2;
     /* TODO: fill in the rest of this class. */
 
     /**
@@ -64,16 +92,49 @@ public class Commit implements Serializable, Cloneable {
 
     /**
      * Constructor for Commit (general)
+     * -- the tree of the files is saved
      * @param parentIds
+     * @param fmap
      * @param date
      * @param message
      */
     public Commit(ArrayList<String> parentIds, HashMap<String, String> fmap, Date date, String message) {
-        this.parentIds = (ArrayList<String>) parentIds;
+        this(parentIds, Tree.write(fmap), date, message);
         this.fmap = fmap;
-        this.date = (Date) date;
+    }
+
+    /**
+     * Constructor for Commit with the tree which has already been saved
+     * @param parentIds
+     * @param treeId
+     * @param date
+     * @param message
+     */
+    public Commit(ArrayList<String> parentIds, String treeId, Date date, String message) {
+        this.parentIds = parentIds;
+        this.treeId = treeId;
+        this.date = date;
+        this.message = message;
+        this.id = generateUID(this.date, this.message, this.parentIds, this.treeId);
+    }
+
+    /**
+     * Constructor for a Commit which has been saved (the id is not generated again)
+     * @param id
+     * @param parentIds
+     * @param fmap
+     * @param treeId
+     * @param date
+     * @param message
+     */
+    private Commit(String id, ArrayList<String> parentIds, HashMap<String, String> fmap, String treeId,
+                   Date date, String message) {
+        this.id = id;
+        this.parentIds = parentIds;
+        this.fmap = fmap;
+        this.treeId = treeId;
+        this.date = date;
         this.message = message;
-        this.id = generateUID(this.date, this.message, this.parentIds, this.fmap);
     }
 
     /**
@@ -105,49 +166,149 @@ public class Commit implements Serializable, Cloneable {
         return UID;
     }
 
+    /**
+     * Sha-1 ID generator for Commit instance with a tree
+     * @param date
+     * @param message
+     * @param parentIds
+     * @param treeId
+     * @return
+     */
+    private static String generateUID(Date date, String message, ArrayList<String> parentIds, String treeId) {
+        return Utils.sha1(date.toString(), message, parentIds.toString(), "tree " + treeId);
+    }
+
     /**
      * This methods loads an Commit instance from a local file
+     * -- each commit is deserialized at most once per command, unless evicted (see ObjectCache)
      */
     public static Commit loadCommit(String id) {
-        File file = Utils.join(GITLET_OBJECTS, getDir(id), getFile(id));
-        Commit comm = Utils.readObject(file, Commit.class);
+        Commit comm = ObjectCache.get(id, Commit.class);
+        if (comm == null) {
+            comm = decode(ObjectStore.readBytes(id));
+            ObjectCache.put(id, comm, comm.approxSize());
+        }
         return comm;
     }
 
     /**
-     * This method saves Commit instance into local file
+     * Returns this commit in the binary format
+     *
+     * @return
      */
-    public void saveCommit() {
-        File file_ = Utils.join(GITLET_OBJECTS, this.getDir(this.id));
-        File file = Utils.join(file_, this.getFile(this.id));
-        if (!file_.exists()) file_.mkdir();
-        try {
-            file.createNewFile();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private byte[] encode() {
+        Encoding.Writer out = new Encoding.Writer(MAGIC, FORMAT_VERSION);
+        out.writeId(this.id);
+        out.writeSignedVarint(this.date.getTime());
+        out.writeString(this.message);
+        out.writeVarint(this.parentIds.size());
+        for (String parentId : this.parentIds) {
+            out.writeId(parentId);
+        }
+        if (this.treeId != null) {
+            out.writeByte(1);
+            out.writeId(this.treeId);
+        } else {
+            out.writeByte(0);
+            for (String path : out.writePaths(this.fmap.keySet())) {
+                out.writeId(this.fmap.get(path));
+            }
         }
-        Utils.writeObject(file, this);
+        return out.toByteArray();
     }
 
-    // source: https://coding-factory.tistory.com/126
     /**
-     * Returns the directory name for given sha-1 id
+     * Returns the commit in given data, either in the binary format or serialized by older versions
      *
-     * @param id
+     * @param data
      * @return
      */
-    private static String getDir(String id) {
-        return id.substring(0, 2);
+    private static Commit decode(byte[] data) {
+        if (Encoding.startsWith(data, Encoding.LEGACY)) {
+            return Utils.deserialize(data, Commit.class);
+        }
+        Encoding.Reader in = new Encoding.Reader(data, MAGIC, FORMAT_VERSION, "commit");
+        String id = in.readId();
+        Date date = new Date(in.readSignedVarint());
+        String message = in.readString();
+        int n = in.readCount();
+        ArrayList<String> parentIds = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            parentIds.add(in.readId());
+        }
+        if (in.version() >= 2 && in.readByte() == 1) {
+            return new Commit(id, parentIds, null, in.readId(), date, message);
+        }
+        in.readPaths();
+        HashMap<String, String> fmap = new HashMap<>(in.pathCount() * 4 / 3 + 1);
+        for (int i = 0; i < in.pathCount(); i++) {
+            fmap.put(in.pathAt(i), in.readId());
+        }
+        return new Commit(id, parentIds, fmap, null, date, message);
     }
 
     /**
-     * Returns the dump file name for given sha-1 id
+     * Returns the approximate size of this commit in memory
+     * -- the file list takes most of it: a path and a blob id for each file
+     *
+     * @return
+     */
+    private long approxSize() {
+        return 256 + 2L * this.message.length() + (this.fmap == null ? 0 : 256L * this.fmap.size());
+    }
+
+    /**
+     * Returns the ids of the commits which start with given prefix (see ObjectStore.findPrefix)
+     * -- the blobs with the same prefix are left out
+     *
+     * @param prefix
+     * @return
+     */
+    public static List<String> findIds(String prefix) {
+        List<String> ids = new ArrayList<>();
+        for (String id : ObjectStore.findPrefix(prefix)) {
+            if (ObjectCache.contains(id) || isCommit(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Checks whether the object with given id is a commit
+     * -- only the first bytes of the object are read (the magic, or the class name of the serialized object)
      *
      * @param id
      * @return
      */
-    private static String getFile(String id) {
-        return id.substring(2);
+    private static boolean isCommit(String id) {
+        byte[] legacy = Arrays.copyOf(Utils.serialize(new Commit()), SERIALIZED_HEADER);
+        InputStream in = ObjectStore.openDecoded(id);
+        try {
+            if (in == null) {
+                // no codec id: a commit of older versions, or a delta blob
+                in = ObjectStore.open(id);
+            }
+            try (InputStream data = in) {
+                byte[] header = data.readNBytes(legacy.length);
+                return Encoding.startsWith(header, MAGIC) || Arrays.equals(header, legacy);
+            }
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * This method saves Commit instance into local file
+     * -- a new commit is also appended to the commit-graph
+     */
+    public void saveCommit() {
+        boolean isNew = !ObjectStore.contains(this.id);
+        ObjectStore.writeBytes(this.id, encode());
+        ObjectCache.put(this.id, this, approxSize());
+        if (isNew) {
+            CommitGraph.add(this);
+        }
     }
 
     /**
@@ -164,44 +325,39 @@ public class Commit implements Serializable, Cloneable {
      *
      * @return
      */
-    private Date getDateRaw() {
+    Date getDateRaw() {
         return this.date;
     }
 
     /**
-     * Prints log for given Commit instance
+     * Gets the first parentId for Commit with given sha-1 commitId
      *
-     * @param comm
+     * @param id
      * @return
      */
-    public static String printLog(Commit comm) {
-        String log = "";
-        log = log + "===" + "\n";
-        log += "commit " + comm.getId() + "\n";
-        // merge -> prints two parent commitId
-        if (comm.parentIds.size() > 1) {
-            String parentId = String.format("Merge: %s %s", comm.parentIds.get(0), comm.parentIds.get(1));
-            log += parentId + "\n";
-        }
-        log += "Date: " + DATE_FORMAT.format(comm.getDateRaw()) + "\n";
-        log += comm.getMessage();
-        if (Commit.getParent(comm.getId()) != null) {
-            log += '\n';
-        }
-        return log;
+    public static String getParent(String id) {
+        return loadCommit(id).getParent();
     }
 
     /**
-     * Gets the first parentId for Commit with given sha-1 commitId
+     * Gets the first parentId of this Commit
      *
-     * @param id
      * @return
      */
-    public static String getParent(String id) {
-        Commit comm = loadCommit(id);
-        if (comm.parentIds.size() == 0)
+    public String getParent() {
+        if (this.parentIds.size() == 0)
             return null;
-        return comm.parentIds.get(0);
+        return this.parentIds.get(0);
+    }
+
+    /**
+     * Returns the sha-1 ids of the parent commits
+     * (the second one exists only for merge commits)
+     *
+     * @return
+     */
+    public ArrayList<String> getParentIds() {
+        return this.parentIds;
     }
 
     /**
@@ -210,9 +366,40 @@ public class Commit implements Serializable, Cloneable {
      * @return
      */
     public HashMap<String, String> getfmap() {
+        if (this.fmap == null) {
+            this.fmap = Tree.files(this.treeId);
+            ObjectCache.put(this.id, this, approxSize());    // the file list is cached with the commit
+        }
         return this.fmap;
     }
 
+    /**
+     * Returns the id of the tree of this Commit
+     * -- a commit without a tree (the initial commit, or saved by older versions)
+     *    gets a tree built from its file list, which is saved but not referred to by the commit
+     *
+     * @return
+     */
+    public String getTreeId() {
+        if (this.treeId != null) {
+            return this.treeId;
+        }
+        if (this.flatTreeId == null) {
+            this.flatTreeId = Tree.write(this.fmap);
+        }
+        return this.flatTreeId;
+    }
+
+    /**
+     * Returns the id of the tree saved with this Commit
+     * -- if the commit has only the file list (see getTreeId) -> return null
+     *
+     * @return
+     */
+    String savedTreeId() {
+        return this.treeId;
+    }
+
     /**
      * Returns a string which represents Commit instance
      * -- only for debugging
@@ -222,11 +409,11 @@ public class Commit implements Serializable, Cloneable {
     public String toString() {
         String tmp = "[COMMIT]\n";
         tmp += "id: " + this.getId() + "\n";
-        tmp += "date: " + DATE_FORMAT.format(this.getDateRaw()) + "\n";
+        tmp += "date: " + DATE_FORMAT.format(this.getDateRaw().toInstant()) + "\n";
         tmp += "message: " + this.getMessage() + "\n";
         tmp += "parent id: " + this.parentIds.toString() + "\n";
         tmp += "file map: " + "\n";
-        tmp += StageArea.hashMapToString(this.fmap);
+        tmp += StageArea.hashMapToString(this.getfmap());
         return tmp;
     }
 
@@ -238,11 +425,12 @@ public class Commit implements Serializable, Cloneable {
         clone.parentIds = new ArrayList<>();
         clone.fmap = new HashMap<>();
         clone.id = this.getId();
+        clone.treeId = this.treeId;
         clone.date = (Date)this.getDateRaw().clone();
         clone.message = this.getMessage();
 
         clone.parentIds.addAll(this.parentIds);
-        clone.fmap.putAll(this.fmap);
+        clone.fmap.putAll(this.getfmap());
         return clone;
     }
 }
@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import static gitlet.Repository.GITLET_GRAPH;
+
+/**
+ * CommitGraph
+ *  The parents and the generation number of every commit, in a memory-mapped file,
+ *  so that the history can be walked without loading any commit.
+ *
+ *  File format (.gitlet/commit-graph)
+ *      "CGPH" | version(int) | N(int) | { record }* (room for more records than N)
+ *      record: id(20 bytes) | first parent(int) | second parent(int) | generation(int)
+ *      - the parents are the positions of their records (-1: no parent)
+ *      - generation: 1 for the initial commit, 1 + the largest generation of the parents otherwise
+ *
+ *  A commit is always appended after its parents, so the new commit is appended
+ *  when it is saved ("git commit", "git merge").
+ *  The commits of a repository created by an older version of gitlet
+ *  are appended the first time they are needed.
+ *
+ *  If A is an ancestor of B, generation(A) < generation(B),
+ *  so a walk in the order of decreasing generation visits a commit only after all of its children.
+ *
+ * @author Gaon Choi
+ */
+class CommitGraph {
+    /** Version of the commit-graph format */
+    private static final int VERSION = 1;
+
+    /** Size of the header: magic + version + N */
+    private static final int HEADER_SIZE = 12;
+
+    /** Size of a record */
+    private static final int RECORD_SIZE = ObjectStore.RAW_LENGTH + 12;
+
+    /** The file grows by this number of records */
+    private static final int GROWTH = 4096;
+
+    /** How many of the latest records are searched before the whole graph is indexed */
+    private static final int RECENT = 256;
+
+    /** Flags for the merge base: reachable from the first / second commit */
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+
+    /** The memory-mapped file (lazily mapped) */
+    private static MappedByteBuffer graph;
+
+    /** The number of records */
+    private static int count;
+
+    /** commit id <--> position of the record (built only if a commit is not in the latest records) */
+    private static HashMap<String, Integer> positions;
+
+    /** Whether records have been appended since the file was synced */
+    private static boolean dirty;
+
+    /**
+     * Appends the record of given commit which has just been saved
+     * -- its parents are appended first if they are not in the graph
+     *
+     * @param comm
+     */
+    static void add(Commit comm) {
+        ArrayDeque<Commit> pending = new ArrayDeque<>();
+        pending.push(comm);
+        while (!pending.isEmpty()) {
+            Commit next = pending.peek();
+            int[] parents = {-1, -1};
+            boolean ready = true;
+            ArrayList<String> parentIds = next.getParentIds();
+            for (int i = 0; i < parentIds.size() && i < 2; i++) {
+                parents[i] = find(parentIds.get(i));
+                if (parents[i] < 0) {
+                    pending.push(Commit.loadCommit(parentIds.get(i)));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                if (next == comm || find(next.getId()) < 0) {
+                    append(next.getId(), parents[0], parents[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the latest common ancestor of given two commits
+     * Both sides are walked from the commits in the order of decreasing generation,
+     * and the first commit reached from both sides is the merge base:
+     * every common ancestor which is not an ancestor of it has been walked before.
+     *
+     * @param id1
+     * @param id2
+     * @return  the id of the merge base (null: no common ancestor)
+     */
+    static String mergeBase(String id1, String id2) {
+        int c1 = position(id1);
+        int c2 = position(id2);
+        byte[] flags = new byte[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (a, b) -> Integer.compare(generation(b), generation(a)));
+        flags[c1] |= PARENT1;
+        flags[c2] |= PARENT2;
+        queue.add(c1);
+        if (c2 != c1) {
+            queue.add(c2);
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            byte f = flags[c];
+            if (f == (PARENT1 | PARENT2)) {
+                return idAt(c);
+            }
+            for (int k = 0; k < 2; k++) {
+                int p = parentAt(c, k);
+                if (p >= 0 && (flags[p] & f) != f) {
+                    boolean queued = flags[p] != 0;
+                    flags[p] |= f;
+                    if (!queued) {
+                        queue.add(p);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ids of the commits on the first-parent chain from given commit, starting with it
+     * -- the parents are read from the graph one at a time, so no commit is loaded to find its parent
+     *
+     * @param id
+     * @return
+     */
+    static Iterable<String> firstParents(String id) {
+        return () -> new Iterator<>() {
+            private int next = position(id);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public String next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                String result = idAt(next);
+                next = parentAt(next, 0);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the position of the record for given commit id
+     * -- the commit is appended if it is not in the graph
+     *
+     * @param id
+     * @return
+     */
+    private static int position(String id) {
+        int pos = find(id);
+        if (pos < 0) {
+            add(Commit.loadCommit(id));
+            pos = count - 1;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the position of the record for given commit id
+     * -- if the commit is not in the graph -> return -1
+     * The latest records are searched first (new commits and branch heads are usually there),
+     * and then the whole graph is indexed by commit id.
+     *
+     * @param id
+     * @return
+     */
+    private static int find(String id) {
+        open();
+        byte[] raw = ObjectStore.toRaw(id);
+        byte[] other = new byte[ObjectStore.RAW_LENGTH];
+        if (positions == null) {
+            for (int pos = count - 1; pos >= 0 && pos >= count - RECENT; pos--) {
+                graph.get(HEADER_SIZE + pos * RECORD_SIZE, other);
+                if (Arrays.equals(raw, other)) {
+                    return pos;
+                }
+            }
+            if (count <= RECENT) {
+                return -1;
+            }
+            positions = new HashMap<>();
+            for (int pos = 0; pos < count; pos++) {
+                positions.put(idAt(pos), pos);
+            }
+        }
+        Integer pos = positions.get(id);
+        return pos == null ? -1 : pos;
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param id
+     * @param parent1
+     * @param parent2
+     */
+    private static void append(String id, int parent1, int parent2) {
+        open();
+        int pos = count;
+        if (HEADER_SIZE + (long) (pos + 1) * RECORD_SIZE > graph.capacity()) {
+            map(pos + GROWTH);
+        }
+        int generation = 1;
+        for (int parent : new int[] {parent1, parent2}) {
+            if (parent >= 0) {
+                generation = Math.max(generation, generation(parent) + 1);
+            }
+        }
+        int offset = HEADER_SIZE + pos * RECORD_SIZE;
+        graph.put(offset, ObjectStore.toRaw(id));
+        graph.putInt(offset + ObjectStore.RAW_LENGTH, parent1);
+        graph.putInt(offset + ObjectStore.RAW_LENGTH + 4, parent2);
+        graph.putInt(offset + ObjectStore.RAW_LENGTH + 8, generation);
+        // the record is complete before it is counted
+        count = pos + 1;
+        graph.putInt(8, count);
+        dirty = true;
+        if (positions != null) {
+            positions.put(id, pos);
+        }
+    }
+
+    /**
+     * Syncs the records appended by this command
+     * -- called before the branches which point to the new commits are saved (see Journal)
+     */
+    static void flush() {
+        if (dirty) {
+            graph.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Drops the mapping, so that the file is mapped again at the next use
+     * (e.g. the daemon, after another process has rewritten the file)
+     */
+    static void close() {
+        flush();
+        graph = null;
+        positions = null;
+        count = 0;
+    }
+
+    private static String idAt(int pos) {
+        byte[] raw = new byte[ObjectStore.RAW_LENGTH];
+        graph.get(HEADER_SIZE + pos * RECORD_SIZE, raw);
+        return ObjectStore.toHex(raw);
+    }
+
+    private static int parentAt(int pos, int k) {
+        return graph.getInt(HEADER_SIZE + pos * RECORD_SIZE + ObjectStore.RAW_LENGTH + 4 * k);
+    }
+
+    private static int generation(int pos) {
+        return graph.getInt(HEADER_SIZE + pos * RECORD_SIZE + ObjectStore.RAW_LENGTH + 8);
+    }
+
+    /**
+     * Maps the commit-graph file (created if it doesn't exist)
+     */
+    private static void open() {
+        if (graph != null) {
+            refresh();
+            return;
+        }
+        if (!GITLET_GRAPH.exists()) {
+            map(GROWTH);
+            graph.put(0, new byte[] {'C', 'G', 'P', 'H'});
+            graph.putInt(4, VERSION);
+            graph.putInt(8, 0);
+            count = 0;
+            return;
+        }
+        map(0);
+        byte[] magic = new byte[4];
+        graph.get(0, magic);
+        if (!Arrays.equals(magic, new byte[] {'C', 'G', 'P', 'H'}) || graph.getInt(4) != VERSION) {
+            throw Utils.error("Unknown commit-graph format");
+        }
+        count = graph.getInt(8);
+    }
+
+    /**
+     * Catches up with the records appended by other processes since the file was mapped
+     * (the mapping is shared, so N in the header is always up to date, e.g. for the daemon)
+     */
+    private static void refresh() {
+        int current = graph.getInt(8);
+        if (current == count) {
+            return;
+        }
+        if (HEADER_SIZE + (long) current * RECORD_SIZE > graph.capacity()) {
+            map(0);
+        }
+        if (positions != null) {
+            for (int pos = count; pos < current; pos++) {
+                positions.put(idAt(pos), pos);
+            }
+        }
+        count = current;
+    }
+
+    /**
+     * Maps the file with room for given number of records (0: the current size of the file)
+     *
+     * @param records
+     */
+    private static void map(int records) {
+        try (RandomAccessFile file = new RandomAccessFile(GITLET_GRAPH, "rw")) {
+            long size = records == 0 ? file.length() : HEADER_SIZE + (long) records * RECORD_SIZE;
+            graph = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot open commit-graph: %s", excp.getMessage());
+        }
+    }
+}
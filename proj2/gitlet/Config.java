@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static gitlet.Repository.GITLET_CONFIG;
+
+/**
+ * Config
+ *  Settings of the repository, saved in .gitlet/config as "key=value" lines.
+ *
+ *  e.g. java gitlet.Main config core.compression lz
+ *
+ * @author Gaon Choi
+ */
+class Config {
+    /** The settings (loaded at the first call) */
+    private static Properties props;
+
+    /**
+     * Returns the value of given key
+     * -- if the key is not set -> return DEF
+     *
+     * @param key
+     * @param def
+     * @return
+     */
+    static String get(String key, String def) {
+        return load().getProperty(key, def);
+    }
+
+    /**
+     * Returns the value of given key as a number
+     * -- if the key is not set (or not a number) -> return DEF
+     *
+     * @param key
+     * @param def
+     * @return
+     */
+    static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(def)).trim());
+        } catch (NumberFormatException excp) {
+            return def;
+        }
+    }
+
+    /**
+     * Sets the value of given key, and saves the settings
+     *
+     * @param key
+     * @param value
+     */
+    static void set(String key, String value) {
+        load().setProperty(key, value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            props.store(out, null);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write config: %s", excp.getMessage());
+        }
+        Journal.write(GITLET_CONFIG, out.toByteArray());
+    }
+
+    /**
+     * Drops the loaded settings, so that they are loaded again at the next call
+     */
+    static void reset() {
+        props = null;
+    }
+
+    private static Properties load() {
+        if (props == null) {
+            props = new Properties();
+            byte[] contents = Journal.read(GITLET_CONFIG);
+            if (contents != null) {
+                try (InputStream in = new ByteArrayInputStream(contents)) {
+                    props.load(in);
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot read config: %s", excp.getMessage());
+                }
+            }
+        }
+        return props;
+    }
+}
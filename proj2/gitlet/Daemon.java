@@ -0,0 +1,300 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.GITLET_CONFIG;
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.GITLET_GRAPH;
+import static gitlet.Repository.GITLET_HEADER;
+import static gitlet.Repository.GITLET_HEADS;
+import static gitlet.Repository.GITLET_IGNORE;
+import static gitlet.Repository.GITLET_STAGE;
+
+/**
+ * Daemon
+ *  A long-running gitlet process which serves the commands of the repository in the current directory,
+ *  so that the JVM startup and the warmup of the caches (objects, pack index, commit-graph, config)
+ *  are paid once instead of once per command.
+ *
+ *  e.g. java gitlet.Main daemon &        (serves until "java gitlet.Main daemon stop")
+ *       java gitlet.Main status          (forwarded to the daemon if it is running)
+ *
+ *  The daemon listens on a Unix-domain socket, .gitlet/daemon.sock
+ *      request : number of arguments(text) | '\n' | { argument(UTF-8) | '\0' }*
+ *      response: the output of the command (the connection is closed at the end)
+ *  so a script can also talk to it without a JVM,
+ *  e.g. printf '2\ncheckout\0master\0' | nc -U .gitlet/daemon.sock
+ *
+ *  The commands are served one at a time. The staging area, HEAD and the branches
+ *  are read from their files by every command, as before.
+ *  The cached state is dropped when a file of the repository has been changed since the previous command ended
+ *  (e.g. by a gitlet command run without the daemon, or "gitlet gc"), checked with the modified times and sizes of
+ *  the config, HEAD, the branches, the staging area, the commit-graph, .gitletignore and the pack index:
+ *      - Config, size of ObjectCache
+ *      - the mapped pack index, the mapped commit-graph
+ *  Commits and blobs are never invalidated: an object never changes for the same id.
+ *
+ * @author Gaon Choi
+ */
+class Daemon {
+    /** File - the socket of the daemon */
+    static final File SOCKET = Utils.join(GITLET_DIR, "daemon.sock");
+
+    /** A client must send its whole request within this time (milliseconds) */
+    private static final long REQUEST_TIMEOUT = 10_000;
+
+    /** Whether the daemon keeps serving */
+    private static boolean running;
+
+    /**
+     * Serves the commands sent to the socket until "daemon stop"
+     * (*) gitlet daemon
+     */
+    static void serve() {
+        if (!GITLET_DIR.exists()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        if (SOCKET.exists()) {
+            if (isRunning()) {
+                throw Utils.error("A daemon is already running.");
+            }
+            SOCKET.delete();    // left by a daemon which was killed
+        }
+
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(SOCKET.toPath());
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            SOCKET.deleteOnExit();
+            System.out.println("Serving on " + SOCKET.getPath());
+            String stamp = stamp();
+            running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = readRequest(client);
+                    String current = stamp();
+                    if (!current.equals(stamp)) {
+                        invalidate();
+                        stamp = current;
+                    }
+                    execute(args, Channels.newOutputStream(client));
+                    stamp = stamp();    // the files written by the command itself keep the cached state
+                } catch (EOFException excp) {
+                    // the client closed the connection without a command (e.g. isRunning)
+                } catch (IOException excp) {
+                    System.err.println("daemon: " + excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot serve on %s: %s", SOCKET.getPath(), excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Runs a command with its output sent to OUT
+     *
+     * @param args
+     * @param out
+     */
+    private static void execute(String[] args, OutputStream out) {
+        PrintStream stdout = System.out;
+        PrintStream client = new PrintStream(new BufferedOutputStream(out), false, StandardCharsets.UTF_8);
+        System.setOut(client);
+        try {
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                running = false;
+                System.out.println("Daemon stopped.");
+            } else if (args.length > 0 && args[0].equals("daemon")) {
+                System.out.println("A daemon is already running.");
+            } else {
+                Main.execute(args);
+            }
+        } catch (RuntimeException excp) {
+            // a bug of a command must not stop the daemon; reported to the client, as Main does
+            System.out.println(excp.getMessage() != null ? excp.getMessage() : excp.toString());
+        } finally {
+            client.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Sends the command to the daemon, and prints its output
+     * -- if no daemon is running -> return false (the command should be run by this process)
+     *
+     * @param args
+     * @return
+     */
+    static boolean forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return false;   // the daemon was killed
+        }
+        try (SocketChannel ch = channel) {
+            OutputStream out = Channels.newOutputStream(ch);
+            out.write(encodeRequest(args));
+            out.flush();
+            ch.shutdownOutput();
+            Channels.newInputStream(ch).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Lost the connection to the daemon: %s", excp.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a daemon is serving on the socket
+     *
+     * @return
+     */
+    private static boolean isRunning() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    private static byte[] encodeRequest(String[] args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes((args.length + "\n").getBytes(StandardCharsets.UTF_8));
+        for (String arg : args) {
+            out.writeBytes(arg.getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the arguments of a request
+     * -- the whole request must arrive within REQUEST_TIMEOUT, so a client cannot block the daemon
+     *
+     * @param client
+     * @return
+     */
+    private static String[] readRequest(SocketChannel client) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long deadline = System.currentTimeMillis() + REQUEST_TIMEOUT;
+        client.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            client.register(selector, SelectionKey.OP_READ);
+            while (true) {
+                String[] args = parseRequest(data.toByteArray());
+                if (args != null) {
+                    return args;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("request timed out");
+                }
+                selector.select(remaining);
+                buf.clear();
+                int n = client.read(buf);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                data.write(buf.array(), 0, n);
+            }
+        } finally {
+            // the selector is closed, so the channel can block again for the output
+            client.configureBlocking(true);
+        }
+    }
+
+    /**
+     * Returns the arguments of given request
+     * -- if the request is not complete yet -> return null
+     *
+     * @param data
+     * @return
+     */
+    private static String[] parseRequest(byte[] data) throws IOException {
+        int pos = 0;
+        while (pos < data.length && data[pos] != '\n') {
+            pos += 1;
+        }
+        if (pos == data.length) {
+            return null;
+        }
+        int n;
+        try {
+            n = Integer.parseInt(new String(data, 0, pos, StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException excp) {
+            throw new IOException("malformed request");
+        }
+        if (n < 0) {
+            throw new IOException("malformed request");
+        }
+        String[] args = new String[n];
+        int start = pos + 1;
+        for (int i = 0; i < n; i++) {
+            int end = start;
+            while (end < data.length && data[end] != 0) {
+                end += 1;
+            }
+            if (end == data.length) {
+                return null;
+            }
+            args[i] = new String(data, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+        }
+        return args;
+    }
+
+    /**
+     * Returns the modified times and sizes of the files of the repository
+     * -- any of them changed means that another command has run since the previous one
+     *
+     * @return
+     */
+    private static String stamp() {
+        List<File> files = new ArrayList<>(List.of(GITLET_CONFIG, GITLET_HEADER, GITLET_STAGE,
+                GITLET_GRAPH, GITLET_IGNORE, ObjectStore.INDEX_FILE));
+        List<String> branches = Utils.plainFilenamesIn(GITLET_HEADS);
+        for (String name : branches == null ? List.<String>of() : branches) {
+            files.add(Utils.join(GITLET_HEADS, name));
+        }
+        StringBuilder stamp = new StringBuilder();
+        for (File file : files) {
+            stamp.append(file.getName()).append('=')
+                    .append(file.lastModified()).append('/').append(file.length()).append(';');
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * Drops the cached state which may have been changed by another process
+     */
+    private static void invalidate() {
+        Config.reset();
+        ObjectCache.reset();
+        ObjectStore.close();
+        CommitGraph.close();
+    }
+}
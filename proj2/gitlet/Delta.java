@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Delta
+ *  A binary delta which rebuilds a new version of a file from an older version (the base).
+ *
+ *  Format of the delta
+ *      baseLength(varint) | targetLength(varint) | { instruction }*
+ *      - COPY  (0) | offset(varint) | length(varint) : copy bytes of the base
+ *      - INSERT(1) | length(varint) | bytes          : insert new bytes
+ *      varint: 7 bits per byte, the lowest bits first, the high bit is set if more bytes follow
+ *
+ *  The base is indexed by the hash of every BLOCK-byte block,
+ *  and the target is scanned with a rolling hash of BLOCK bytes to find the blocks of the base.
+ *  Each match is extended as far as possible in both directions.
+ *
+ * @author Gaon Choi
+ */
+class Delta {
+    /** Instruction: copy bytes of the base */
+    private static final int COPY = 0;
+
+    /** Instruction: insert new bytes */
+    private static final int INSERT = 1;
+
+    /** Size of the blocks of the base which are indexed */
+    private static final int BLOCK = 16;
+
+    /** How many entries of the hash table are checked for a hash */
+    private static final int MAX_PROBES = 8;
+
+    /** Multiplier of the rolling hash */
+    private static final int PRIME = 16777619;
+
+    /** PRIME ^ BLOCK, to remove the oldest byte from the rolling hash */
+    private static final int PRIME_POW;
+
+    static {
+        int pow = 1;
+        for (int i = 0; i < BLOCK; i++) {
+            pow *= PRIME;
+        }
+        PRIME_POW = pow;
+    }
+
+    /**
+     * Returns a delta which rebuilds TARGET from BASE
+     * -- if the delta would be LIMIT bytes or longer -> return null
+     *
+     * @param base
+     * @param target
+     * @param limit
+     * @return
+     */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // hash table of the blocks of the base: block offset + 1 (0 = empty)
+        int slots = Integer.highestOneBit(Math.max(base.length / BLOCK, 1) * 2 + 1);
+        int[] hashes = new int[slots];
+        int[] offsets = new int[slots];
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            int h = hash(base, off);
+            for (int p = 0, s = h & (slots - 1); p < MAX_PROBES; p++, s = (s + 1) & (slots - 1)) {
+                if (offsets[s] == 0) {
+                    hashes[s] = h;
+                    offsets[s] = off + 1;
+                    break;
+                }
+            }
+        }
+
+        int literalStart = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            // find the longest match among the blocks with the same hash
+            int bestOffset = -1;
+            int bestStart = i;
+            int bestLength = 0;
+            for (int p = 0, s = h & (slots - 1); p < MAX_PROBES && offsets[s] != 0;
+                 p++, s = (s + 1) & (slots - 1)) {
+                if (hashes[s] != h) {
+                    continue;
+                }
+                int off = offsets[s] - 1;
+                int forward = 0;
+                while (off + forward < base.length && i + forward < target.length
+                        && base[off + forward] == target[i + forward]) {
+                    forward += 1;
+                }
+                if (forward < BLOCK) {
+                    continue;
+                }
+                int backward = 0;
+                while (off - backward > 0 && i - backward > literalStart
+                        && base[off - backward - 1] == target[i - backward - 1]) {
+                    backward += 1;
+                }
+                if (forward + backward > bestLength) {
+                    bestOffset = off - backward;
+                    bestStart = i - backward;
+                    bestLength = forward + backward;
+                }
+            }
+
+            if (bestOffset < 0) {
+                // no match -> roll the hash by one byte
+                if (i + BLOCK < target.length) {
+                    h = h * PRIME - (target[i] & 0xff) * PRIME_POW + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+                continue;
+            }
+
+            writeInsert(out, target, literalStart, bestStart - literalStart);
+            out.write(COPY);
+            writeVarint(out, bestOffset);
+            writeVarint(out, bestLength);
+            if (out.size() >= limit) {
+                return null;
+            }
+            i = bestStart + bestLength;
+            literalStart = i;
+            if (i + BLOCK <= target.length) {
+                h = hash(target, i);
+            }
+        }
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        return out.size() < limit ? out.toByteArray() : null;
+    }
+
+    /**
+     * Rebuilds the target from BASE and the delta read from IN
+     *
+     * @param base
+     * @param in
+     * @return
+     */
+    static byte[] apply(byte[] base, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (readVarint(data) != base.length) {
+            throw new IOException("delta does not match its base");
+        }
+        int length = readVarint(data);
+        byte[] target = new byte[length];
+        int pos = 0;
+        int op;
+        while ((op = data.read()) >= 0) {
+            switch (op) {
+                case COPY: {
+                    int offset = readVarint(data);
+                    int n = readVarint(data);
+                    if ((long) offset + n > base.length || (long) pos + n > length) {
+                        throw new IOException("corrupted delta");
+                    }
+                    System.arraycopy(base, offset, target, pos, n);
+                    pos += n;
+                    break;
+                }
+                case INSERT: {
+                    int n = readVarint(data);
+                    if ((long) pos + n > length) {
+                        throw new IOException("corrupted delta");
+                    }
+                    data.readFully(target, pos, n);
+                    pos += n;
+                    break;
+                }
+                default:
+                    throw new IOException("corrupted delta");
+            }
+        }
+        if (pos != length) {
+            throw new IOException("corrupted delta");
+        }
+        return target;
+    }
+
+    private static int hash(byte[] b, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * PRIME + (b[off + k] & 0xff);
+        }
+        return h;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] b, int off, int n) {
+        if (n > 0) {
+            out.write(INSERT);
+            writeVarint(out, n);
+            out.write(b, off, n);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("corrupted delta");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("corrupted delta");
+                }
+                return value;
+            }
+        }
+        throw new IOException("corrupted delta");
+    }
+}
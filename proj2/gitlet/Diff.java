@@ -0,0 +1,471 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Repository.CWD;
+
+/**
+ * Diff
+ *  Prints the differences between two versions of the files, in the unified format of git:
+ *
+ *      diff --git a/[path] b/[path]
+ *      --- a/[path]                        (/dev/null for a new file)
+ *      +++ b/[path]                        (/dev/null for a deleted file)
+ *      @@ -[start],[length] +[start],[length] @@
+ *       [a line of both]
+ *      -[a line of the old version]
+ *      +[a line of the new version]
+ *
+ *  The lines are compared with LineDiff, with CONTEXT unchanged lines around each change.
+ *  A file which contains a NUL byte (in its first BINARY_CHECK bytes) is binary, and only reported.
+ *
+ *  Renames: a file deleted and a file added are the same file renamed
+ *      1) if their contents are the same (the same blob id)
+ *      2) or if their lines are similar enough (RENAME_THRESHOLD percent, estimated with MinHash):
+ *          - each file gets a signature: for each of SIGNATURE hash functions, the least hash of its lines,
+ *            so two signatures agree at a position with the probability of the Jaccard similarity of the files
+ *          - the signatures are split into BANDS, and indexed by band: only the files sharing a band
+ *            are compared, so thousands of deleted and added files are not compared pair by pair
+ *      The most similar pairs are taken first, and each file is renamed at most once.
+ *
+ * @author Gaon Choi
+ */
+class Diff {
+    /** The number of unchanged lines printed around each change */
+    private static final int CONTEXT = 3;
+
+    /** The number of bytes checked for a NUL (as in git) */
+    private static final int BINARY_CHECK = 8000;
+
+    /** The least similarity of a renamed file (percent, as in git) */
+    private static final int RENAME_THRESHOLD = 50;
+
+    /** The size of a MinHash signature, and the bands of it indexed for the candidates */
+    private static final int SIGNATURE = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = SIGNATURE / BANDS;
+
+    /** The seeds of the hash functions of the signature */
+    private static final long[] SEEDS = new long[SIGNATURE];
+
+    static {
+        long seed = 0x2545f4914f6cdd1dL;
+        for (int i = 0; i < SIGNATURE; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /** The versions of the files being compared: file path <--> blob id */
+    private final Map<String, String> from;
+    private final Map<String, String> to;
+
+    /** Whether the contents of TO are read from the working files (not saved as blobs) */
+    private final boolean toWorking;
+
+    private final OutputStream out;
+
+    private Diff(Map<String, String> from, Map<String, String> to, boolean toWorking, OutputStream out) {
+        this.from = from;
+        this.to = to;
+        this.toWorking = toWorking;
+        this.out = out;
+    }
+
+    /**
+     * Prints the differences between two versions of the files
+     *
+     * @param from          file path <--> blob id of the old version
+     * @param to            file path <--> blob id of the new version
+     * @param toWorking     whether the new version is the working directory
+     *                      (its blob ids are the ids of the working files, see StageArea.blobIds)
+     */
+    static void print(Map<String, String> from, Map<String, String> to, boolean toWorking) {
+        OutputStream out = new BufferedOutputStream(System.out, 65536);
+        try {
+            new Diff(from, to, toWorking, out).print();
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot print the diff: %s", excp.getMessage());
+        }
+    }
+
+    private void print() throws IOException {
+        List<String> deleted = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        TreeMap<String, String[]> changes = new TreeMap<>();    // path <--> {old path, new path, similarity}
+        for (Map.Entry<String, String> entry : from.entrySet()) {
+            String id = to.get(entry.getKey());
+            if (id == null) {
+                deleted.add(entry.getKey());
+            } else if (!id.equals(entry.getValue())) {
+                changes.put(entry.getKey(), new String[] {entry.getKey(), entry.getKey(), null});
+            }
+        }
+        for (String path : to.keySet()) {
+            if (!from.containsKey(path)) {
+                added.add(path);
+            }
+        }
+
+        Collections.sort(deleted);      // the same renames every time
+        Collections.sort(added);
+        HashSet<String> renamed = new HashSet<>();
+        for (String[] rename : renames(deleted, added)) {
+            changes.put(rename[1], rename);
+            renamed.add(rename[0]);
+            renamed.add(rename[1]);
+        }
+        for (String path : deleted) {
+            if (!renamed.contains(path)) {
+                changes.put(path, new String[] {path, null, null});
+            }
+        }
+        for (String path : added) {
+            if (!renamed.contains(path)) {
+                changes.put(path, new String[] {null, path, null});
+            }
+        }
+
+        for (String[] change : changes.values()) {
+            if (change[2] != null) {
+                printRename(change[0], change[1], change[2]);
+            } else {
+                printFile(change[0], change[1]);
+            }
+        }
+    }
+
+    /**
+     * Finds the renamed files among the deleted and the added files
+     *
+     * @param deleted
+     * @param added
+     * @return  {old path, new path, similarity (percent)}
+     */
+    private List<String[]> renames(List<String> deleted, List<String> added) {
+        List<String[]> renames = new ArrayList<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+
+        // 1) the same contents
+        HashMap<String, List<String>> byId = new HashMap<>();
+        for (String path : deleted) {
+            byId.computeIfAbsent(from.get(path), id -> new ArrayList<>()).add(path);
+        }
+        List<String> restAdded = new ArrayList<>();
+        for (String path : added) {
+            List<String> same = byId.get(to.get(path));
+            if (same != null && !same.isEmpty()) {
+                renames.add(new String[] {same.remove(0), path, "100"});
+            } else {
+                restAdded.add(path);
+            }
+        }
+        List<String> restDeleted = new ArrayList<>();
+        for (List<String> paths : byId.values()) {
+            restDeleted.addAll(paths);
+        }
+        if (restDeleted.isEmpty() || restAdded.isEmpty()) {
+            return renames;
+        }
+
+        // 2) similar contents: the candidates share a band of their signatures
+        Map<String, long[]> signatures = new HashMap<>();
+        restDeleted.parallelStream().forEach(path -> {
+            long[] signature = signature(open(path, from.get(path), false));
+            synchronized (signatures) {
+                signatures.put(path, signature);
+            }
+        });
+        HashMap<Long, List<String>> bands = new HashMap<>();
+        for (String path : restDeleted) {
+            long[] signature = signatures.get(path);
+            for (int band = 0; signature != null && band < BANDS; band++) {
+                bands.computeIfAbsent(bandKey(signature, band), key -> new ArrayList<>()).add(path);
+            }
+        }
+
+        List<Object[]> pairs = new ArrayList<>();    // {similarity, old path, new path}
+        restAdded.parallelStream().forEach(path -> {
+            long[] signature = signature(open(path, to.get(path), toWorking));
+            if (signature == null) {
+                return;
+            }
+            HashSet<String> candidates = new HashSet<>();
+            for (int band = 0; band < BANDS; band++) {
+                candidates.addAll(bands.getOrDefault(bandKey(signature, band), List.of()));
+            }
+            for (String candidate : candidates) {
+                int score = similarity(signatures.get(candidate), signature);
+                if (score >= RENAME_THRESHOLD) {
+                    synchronized (pairs) {
+                        pairs.add(new Object[] {score, candidate, path});
+                    }
+                }
+            }
+        });
+
+        // the most similar first (then by path, so the result does not depend on the threads)
+        pairs.sort(Comparator.<Object[]>comparingInt(pair -> -(int) pair[0])
+                .thenComparing(pair -> (String) pair[2]).thenComparing(pair -> (String) pair[1]));
+        HashSet<String> used = new HashSet<>();
+        for (Object[] pair : pairs) {
+            String oldPath = (String) pair[1];
+            String newPath = (String) pair[2];
+            if (!used.contains(oldPath) && !used.contains(newPath)) {
+                used.add(oldPath);
+                used.add(newPath);
+                renames.add(new String[] {oldPath, newPath, String.valueOf(pair[0])});
+            }
+        }
+        return renames;
+    }
+
+    /**
+     * Returns the MinHash signature of the lines of a file
+     * -- if the file has no lines -> return null (an empty file is never renamed by similarity)
+     *
+     * @param input
+     * @return
+     */
+    private static long[] signature(InputStream input) {
+        long[] signature = new long[SIGNATURE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        boolean empty = true;
+        try (InputStream in = input) {
+            byte[] buf = new byte[8192];
+            long hash = 0xcbf29ce484222325L;    // FNV-1a of the line
+            boolean pending = false;
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    hash = (hash ^ buf[i]) * 0x100000001b3L;
+                    pending = true;
+                    if (buf[i] == '\n') {
+                        addLine(signature, hash);
+                        hash = 0xcbf29ce484222325L;
+                        pending = false;
+                        empty = false;
+                    }
+                }
+            }
+            if (pending) {
+                addLine(signature, hash);
+                empty = false;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read a file: %s", excp.getMessage());
+        }
+        return empty ? null : signature;
+    }
+
+    private static void addLine(long[] signature, long hash) {
+        for (int i = 0; i < SIGNATURE; i++) {
+            long h = mix(hash ^ SEEDS[i]);
+            if (h < signature[i]) {
+                signature[i] = h;
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated similarity of two files (percent): the positions where their signatures agree
+     */
+    private static int similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < SIGNATURE; i++) {
+            if (a[i] == b[i]) {
+                same += 1;
+            }
+        }
+        return same * 100 / SIGNATURE;
+    }
+
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            key = mix(key ^ signature[i]);
+        }
+        return key;
+    }
+
+    /** The finalizer of SplitMix64 */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Opens the contents of a file
+     *
+     * @param path
+     * @param id        the blob id
+     * @param working   whether the contents are in the working file (not saved as a blob)
+     * @return
+     */
+    private static InputStream open(String path, String id, boolean working) {
+        if (!working) {
+            return Blob.open(id);
+        }
+        try {
+            return new FileInputStream(path);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", path, excp.getMessage());
+        }
+    }
+
+    private void printRename(String oldPath, String newPath, String similarity) throws IOException {
+        String a = relative(oldPath);
+        String b = relative(newPath);
+        writeLine("diff --git a/" + a + " b/" + b);
+        writeLine("similarity index " + similarity + "%");
+        writeLine("rename from " + a);
+        writeLine("rename to " + b);
+        if (!from.get(oldPath).equals(to.get(newPath))) {
+            printLines(oldPath, newPath);
+        }
+    }
+
+    /**
+     * Prints the differences of a file
+     *
+     * @param oldPath   (null: a new file)
+     * @param newPath   (null: a deleted file)
+     * @throws IOException
+     */
+    private void printFile(String oldPath, String newPath) throws IOException {
+        String path = relative(oldPath != null ? oldPath : newPath);
+        writeLine("diff --git a/" + path + " b/" + path);
+        if (oldPath == null) {
+            writeLine("new file");
+        } else if (newPath == null) {
+            writeLine("deleted file");
+        }
+        printLines(oldPath, newPath);
+    }
+
+    private void printLines(String oldPath, String newPath) throws IOException {
+        String a = oldPath == null ? "/dev/null" : "a/" + relative(oldPath);
+        String b = newPath == null ? "/dev/null" : "b/" + relative(newPath);
+        LineDiff.Lines lines = new LineDiff.Lines();
+        int[] oldLines = read(lines, oldPath, oldPath == null ? null : from.get(oldPath), false);
+        int[] newLines = read(lines, newPath, newPath == null ? null : to.get(newPath), toWorking);
+        if (oldLines == null || newLines == null) {
+            writeLine("Binary files " + a + " and " + b + " differ");
+            return;
+        }
+        List<int[]> hunks = LineDiff.diff(oldLines, newLines, lines.size());
+        if (hunks.isEmpty()) {
+            return;
+        }
+        writeLine("--- " + a);
+        writeLine("+++ " + b);
+
+        // the hunks closer than 2 * CONTEXT lines are printed together
+        int i = 0;
+        while (i < hunks.size()) {
+            int j = i;
+            while (j + 1 < hunks.size() && hunks.get(j + 1)[0] - hunks.get(j)[1] <= 2 * CONTEXT) {
+                j += 1;
+            }
+            int aStart = Math.max(0, hunks.get(i)[0] - CONTEXT);
+            int bStart = Math.max(0, hunks.get(i)[2] - CONTEXT);
+            int aEnd = Math.min(oldLines.length, hunks.get(j)[1] + CONTEXT);
+            int bEnd = Math.min(newLines.length, hunks.get(j)[3] + CONTEXT);
+            writeLine("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@");
+
+            int pos = aStart;
+            for (int k = i; k <= j; k++) {
+                int[] hunk = hunks.get(k);
+                writeLines(lines, ' ', oldLines, pos, hunk[0]);
+                writeLines(lines, '-', oldLines, hunk[0], hunk[1]);
+                writeLines(lines, '+', newLines, hunk[2], hunk[3]);
+                pos = hunk[1];
+            }
+            writeLines(lines, ' ', oldLines, pos, aEnd);
+            i = j + 1;
+        }
+    }
+
+    /**
+     * Reads the lines of a file
+     * -- if the file is binary -> return null
+     *
+     * @param lines
+     * @param path      (null: no such file)
+     * @param id
+     * @param working
+     * @return
+     */
+    private static int[] read(LineDiff.Lines lines, String path, String id, boolean working) throws IOException {
+        if (path == null) {
+            return new int[0];
+        }
+        try (InputStream in = new BufferedInputStream(open(path, id, working), BINARY_CHECK)) {
+            in.mark(BINARY_CHECK);
+            byte[] head = in.readNBytes(BINARY_CHECK);
+            for (byte b : head) {
+                if (b == 0) {
+                    return null;
+                }
+            }
+            in.reset();
+            return lines.read(in);
+        }
+    }
+
+    /**
+     * Returns a range of a hunk header: "start,length", where start is the first line (from 1)
+     * -- an empty range starts at the line before it, and a range of 1 line has no length (as in git)
+     */
+    private static String range(int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private void writeLines(LineDiff.Lines lines, char prefix, int[] file, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            out.write(prefix);
+            lines.write(file, i, i + 1, out);
+            if (!lines.endsWithNewline(file[i])) {
+                out.write('\n');
+                writeLine("\\ No newline at end of file");
+            }
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    /**
+     * Returns the path relative to the working directory, separated by '/'
+     */
+    private static String relative(String path) {
+        String relative = path.startsWith(CWD.getPath() + File.separator) ? Repository.getRelativePath(path) : path;
+        return relative.replace(File.separatorChar, '/');
+    }
+}
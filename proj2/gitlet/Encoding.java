@@ -0,0 +1,301 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Encoding
+ *  The building blocks of the binary formats of commits and the staging area,
+ *  which replace the default Java serialization (class descriptors in every file, slow to read).
+ *
+ *      varint : 7 bits per byte, the lowest first (the high bit is set on every byte but the last)
+ *      string : length(varint) | UTF-8 bytes
+ *      id     : the 20 raw bytes of a sha-1 id
+ *      paths  : N(varint) | { shared(varint) | suffix(string) }*
+ *               - sorted, each path shares its first SHARED bytes (UTF-8) with the previous one
+ *               - a path is written only once, and referred to by its position in the table
+ *
+ *  Every format starts with its magic (4 bytes) and its version (1 byte),
+ *  so the data saved by older versions of gitlet (serialized Java objects, see LEGACY) can still be read.
+ *
+ * @author Gaon Choi
+ */
+class Encoding {
+    /** The first bytes of a serialized Java object (the data saved by older versions) */
+    static final byte[] LEGACY = {(byte) 0xac, (byte) 0xed};
+
+    /**
+     * Checks whether given data starts with given magic
+     *
+     * @param data
+     * @param magic
+     * @return
+     */
+    static boolean startsWith(byte[] data, byte[] magic) {
+        return data.length >= magic.length
+                && Arrays.equals(data, 0, magic.length, magic, 0, magic.length);
+    }
+
+    /**
+     * Writes the binary formats
+     */
+    static class Writer {
+        private byte[] buf = new byte[8192];
+        private int length;
+
+        /** path <--> position in the path table */
+        private final HashMap<String, Integer> paths = new HashMap<>();
+
+        Writer(byte[] magic, int version) {
+            writeBytes(magic, 0, magic.length);
+            writeByte(version);
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[length++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[length++] = (byte) value;
+        }
+
+        /**
+         * Writes a number which can be negative (zigzag: 0, -1, 1, -2, ... -> 0, 1, 2, 3, ...)
+         *
+         * @param value
+         */
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        void writeId(String id) {
+            ensure(ObjectStore.RAW_LENGTH);
+            ObjectStore.toRaw(id, buf, length);
+            length += ObjectStore.RAW_LENGTH;
+        }
+
+        /**
+         * Writes the path table, and returns the paths in the order of the table (sorted)
+         *
+         * @param all
+         * @return
+         */
+        List<String> writePaths(Collection<String> all) {
+            List<String> sorted = new ArrayList<>(new HashSet<>(all));
+            Collections.sort(sorted);
+            writeVarint(sorted.size());
+            byte[] prev = new byte[0];
+            for (String path : sorted) {
+                byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+                int shared = Arrays.mismatch(prev, bytes);
+                if (shared < 0) {
+                    shared = bytes.length;      // the same path is never written twice
+                }
+                shared = Math.min(shared, Math.min(prev.length, bytes.length));
+                writeVarint(shared);
+                writeVarint(bytes.length - shared);
+                writeBytes(bytes, shared, bytes.length - shared);
+                paths.put(path, paths.size());
+                prev = bytes;
+            }
+            return sorted;
+        }
+
+        /**
+         * Writes the position of given path in the path table
+         *
+         * @param path
+         */
+        void writePath(String path) {
+            writeVarint(paths.get(path));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, length);
+        }
+
+        private void writeBytes(byte[] bytes, int off, int len) {
+            ensure(len);
+            System.arraycopy(bytes, off, buf, length, len);
+            length += len;
+        }
+
+        private void ensure(int n) {
+            if (length + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, length + n));
+            }
+        }
+    }
+
+    /**
+     * Reads the binary formats
+     * -- broken data -> GitletException
+     */
+    static class Reader {
+        private final byte[] data;
+        private int pos;
+        private final String what;
+
+        /** The version of the data */
+        private final int version;
+
+        /** The path table */
+        private String[] paths;
+
+        /**
+         * Starts reading given data, which must start with given magic and a known version
+         *
+         * @param data
+         * @param magic
+         * @param maxVersion    the latest version this gitlet can read
+         * @param what          the name of the data, for the error messages
+         */
+        Reader(byte[] data, byte[] magic, int maxVersion, String what) {
+            this.data = data;
+            this.what = what;
+            if (!startsWith(data, magic) || data.length == magic.length) {
+                throw Utils.error("Broken %s.", what);
+            }
+            pos = magic.length;
+            version = readByte();
+            if (version > maxVersion) {
+                throw Utils.error("The %s was saved by a newer version of gitlet (version %d).", what, version);
+            }
+        }
+
+        int version() {
+            return version;
+        }
+
+        int readByte() {
+            check(1);
+            return data[pos++] & 0xff;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw Utils.error("Broken %s.", what);
+        }
+
+        long readSignedVarint() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a varint which is a count or a length of something in the data
+         * (every item takes at least 1 byte, so it cannot be more than the rest of the data)
+         *
+         * @return
+         */
+        int readCount() {
+            long n = readVarint();
+            if (n < 0 || n > data.length - pos) {
+                throw Utils.error("Broken %s.", what);
+            }
+            return (int) n;
+        }
+
+        String readString() {
+            int length = readCount();
+            check(length);
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        String readId() {
+            check(ObjectStore.RAW_LENGTH);
+            String id = ObjectStore.toHex(data, pos);
+            pos += ObjectStore.RAW_LENGTH;
+            return id;
+        }
+
+        /**
+         * Reads the path table
+         */
+        void readPaths() {
+            paths = new String[readCount()];
+            byte[] path = new byte[256];
+            int length = 0;
+            for (int i = 0; i < paths.length; i++) {
+                long shared = readVarint();
+                if (shared < 0 || shared > length) {
+                    throw Utils.error("Broken %s.", what);
+                }
+                int suffix = readCount();
+                check(suffix);
+                length = (int) shared + suffix;
+                if (length > path.length) {
+                    path = Arrays.copyOf(path, Math.max(2 * path.length, length));
+                }
+                System.arraycopy(data, pos, path, (int) shared, suffix);
+                pos += suffix;
+                paths[i] = new String(path, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * Returns the number of paths in the path table
+         *
+         * @return
+         */
+        int pathCount() {
+            return paths.length;
+        }
+
+        /**
+         * Returns the path at given position of the path table
+         *
+         * @param i
+         * @return
+         */
+        String pathAt(int i) {
+            return paths[i];
+        }
+
+        /**
+         * Reads the position of a path, and returns the path
+         *
+         * @return
+         */
+        String readPath() {
+            long i = readVarint();
+            if (i < 0 || i >= paths.length) {
+                throw Utils.error("Broken %s.", what);
+            }
+            return paths[(int) i];
+        }
+
+        private void check(int n) {
+            if (n < 0 || n > data.length - pos) {
+                throw Utils.error("Broken %s.", what);
+            }
+        }
+    }
+}
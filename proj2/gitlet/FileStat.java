@@ -0,0 +1,221 @@
+package gitlet;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileStat
+ *  The stat data (size, modified time, inode) of a file in the working directory,
+ *  together with the blob id of the file contents at the time the stat data was taken.
+ *
+ *  If the stat data of a file is the same as the cached one,
+ *  the file has not been changed, so its blob id can be reused without reading and hashing the file.
+ *
+ * @author Gaon Choi
+ */
+public class FileStat implements Serializable {
+    /** Fixed, so that the StageArea saved by older versions of gitlet can still be loaded. */
+    private static final long serialVersionUID = 2753584471323792300L;
+
+    // size of the file in bytes
+    private final long size;
+
+    // last modified time of the file (nanoseconds since epoch)
+    private final long mtime;
+
+    // inode number of the file (0 if the file system doesn't have one)
+    private final long inode;
+
+    // the blob id of the file contents
+    private final String blobId;
+
+    /**
+     * Constructor for FileStat class
+     * @param size
+     * @param mtime
+     * @param inode
+     * @param blobId
+     */
+    private FileStat(long size, long mtime, long inode, String blobId) {
+        this.size = size;
+        this.mtime = mtime;
+        this.inode = inode;
+        this.blobId = blobId;
+    }
+
+    /**
+     * Reads the stat data of given file
+     * -- if the file doesn't exist -> return null
+     *
+     * @param file
+     * @return
+     */
+    public static FileStat of(File file) {
+        Path path = file.toPath();
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+            return new FileStat((Long) attrs.get("size"),
+                    toNanos((FileTime) attrs.get("lastModifiedTime")),
+                    (Long) attrs.get("ino"), null);
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            // not a unix file system -> no inode
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return new FileStat(attrs.size(), toNanos(attrs.lastModifiedTime()), 0, null);
+            } catch (IOException e) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long toNanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a copy of this stat data with the given blob id
+     * @param id
+     * @return
+     */
+    public FileStat withBlobId(String id) {
+        return new FileStat(this.size, this.mtime, this.inode, id);
+    }
+
+    /**
+     * Getter for this.blobId
+     * @return
+     */
+    public String getBlobId() {
+        return this.blobId;
+    }
+
+    /**
+     * Getter for this.mtime
+     * @return
+     */
+    public long getMtime() {
+        return this.mtime;
+    }
+
+    /**
+     * Writes this stat data in the binary format of the staging area
+     *      size(varint) | mtime(signed varint) | inode(varint) | blob id
+     *      - blob id: 0 (no blob id), 1 + blob id, or 2 (the same as TRACKEDID)
+     *
+     * @param out
+     * @param trackedId     the blob id of the tracked file (null: not tracked)
+     */
+    void encode(Encoding.Writer out, String trackedId) {
+        out.writeVarint(this.size);
+        out.writeSignedVarint(this.mtime);
+        out.writeVarint(this.inode);
+        if (this.blobId == null) {
+            out.writeByte(0);
+        } else if (this.blobId.equals(trackedId)) {
+            out.writeByte(2);
+        } else {
+            out.writeByte(1);
+            out.writeId(this.blobId);
+        }
+    }
+
+    /**
+     * Reads the stat data written by encode
+     *
+     * @param in
+     * @param trackedId     the blob id of the tracked file (null: not tracked)
+     * @return
+     */
+    static FileStat decode(Encoding.Reader in, String trackedId) {
+        long size = in.readVarint();
+        long mtime = in.readSignedVarint();
+        long inode = in.readVarint();
+        String blobId;
+        switch (in.readByte()) {
+            case 0:
+                blobId = null;
+                break;
+            case 1:
+                blobId = in.readId();
+                break;
+            default:
+                blobId = trackedId;
+                break;
+        }
+        return new FileStat(size, mtime, inode, blobId);
+    }
+
+    /**
+     * Writes this stat data in the fixed-width format of the staging area (see StageArea)
+     *      size(long) | mtime(long) | inode(long) | blob id
+     *      - blob id: 0 (no blob id), 1 + blob id(20 bytes), or 2 (the same as TRACKEDID)
+     *
+     * @param out
+     * @param trackedId     the blob id of the tracked file (null: not tracked)
+     * @throws IOException
+     */
+    void write(DataOutput out, String trackedId) throws IOException {
+        out.writeLong(this.size);
+        out.writeLong(this.mtime);
+        out.writeLong(this.inode);
+        if (this.blobId == null) {
+            out.writeByte(0);
+        } else if (this.blobId.equals(trackedId)) {
+            out.writeByte(2);
+        } else {
+            out.writeByte(1);
+            out.write(ObjectStore.toRaw(this.blobId));
+        }
+    }
+
+    /**
+     * Reads the stat data written by write, from the position of IN
+     *
+     * @param in
+     * @param trackedId     the blob id of the tracked file (null: not tracked)
+     * @return
+     */
+    static FileStat read(ByteBuffer in, String trackedId) {
+        long size = in.getLong();
+        long mtime = in.getLong();
+        long inode = in.getLong();
+        String blobId;
+        switch (in.get()) {
+            case 0:
+                blobId = null;
+                break;
+            case 1:
+                byte[] raw = new byte[ObjectStore.RAW_LENGTH];
+                in.get(raw);
+                blobId = ObjectStore.toHex(raw);
+                break;
+            default:
+                blobId = trackedId;
+                break;
+        }
+        return new FileStat(size, mtime, inode, blobId);
+    }
+
+    /**
+     * Checks whether the given stat data is the same as this one
+     * (the blob id is not compared)
+     *
+     * @param other
+     * @return
+     */
+    public boolean sameStat(FileStat other) {
+        return other != null && this.size == other.size
+                && this.mtime == other.mtime && this.inode == other.inode;
+    }
+}
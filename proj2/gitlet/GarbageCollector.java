@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.GITLET_HEADS;
+
+/**
+ * GarbageCollector
+ *  Removes the objects which no commit, tree or staged file refers to ("git gc", "git prune"):
+ *  blobs staged and then unstaged, commits orphaned by "reset", and the commits of removed branches.
+ *
+ *  Mark and sweep
+ *      1) every object saved so far gets a position (see ObjectStore.Snapshot),
+ *         so the marks are a bitmap with a bit for each object, not a set of ids
+ *      2) mark: walks from the roots, following
+ *              commit -> its parents and its tree (or the blobs of its file list, for older commits)
+ *              tree   -> its subtrees and blobs
+ *              blob   -> the base of a delta blob (see Blob)
+ *         an object is visited at most once, as its bit is set before it is followed
+ *      3) sweep: "gc" rewrites the pack with the kept objects only, "prune" deletes the unkept loose objects
+ *
+ *  Roots
+ *      - the commit of every branch
+ *      - the blobs of the staging area (the tracked files and the staged ones)
+ *      - the commits made within the grace period (read from the newest end of the log, see Logs)
+ *  An object saved within the grace period is always kept, even if nothing refers to it yet
+ *  (e.g. saved by "add" in another command which is running), and so is the chain of bases of a kept delta blob.
+ *  The grace period is "gc.pruneExpire" days (default 14; 0 removes every unreachable object at once).
+ *
+ *  The commits removed are also removed from the log, so "global-log" and "find" no longer show them.
+ *  Their records in the commit graph are kept: they are never reached from the commits which are left.
+ *
+ * @author Gaon Choi
+ */
+class GarbageCollector {
+    /** The default grace period (days) */
+    private static final long DEFAULT_EXPIRE_DAYS = 14;
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /** The objects saved when the collection started */
+    private final ObjectStore.Snapshot snapshot = new ObjectStore.Snapshot();
+
+    /** The bitmap of the objects to be kept (position <--> bit) */
+    private final long[] marks = new long[(snapshot.size() + 63) / 64];
+
+    /** The objects saved before this time may be removed (milliseconds) */
+    private final long expiry;
+
+    /** The objects reached but not followed yet */
+    private final ArrayDeque<String> commits = new ArrayDeque<>();
+    private final ArrayDeque<String> trees = new ArrayDeque<>();
+    private final ArrayDeque<String> blobs = new ArrayDeque<>();
+
+    private GarbageCollector() {
+        long days = Config.getLong("gc.pruneExpire", DEFAULT_EXPIRE_DAYS);
+        this.expiry = System.currentTimeMillis() - Math.max(0, days) * DAY;
+    }
+
+    /**
+     * Rewrites the pack with the reachable objects, and prints how much was removed
+     * (*) git gc
+     */
+    static void gc() {
+        GarbageCollector collector = new GarbageCollector();
+        collector.mark();
+        long[] removed = collector.unmarked(0);
+        ObjectStore.repack(collector.snapshot, collector::marked, collector.expiry);
+        Logs.retain(ObjectStore::contains);
+        report(removed);
+    }
+
+    /**
+     * Deletes the unreachable loose objects, and prints how much was removed
+     * (*) git prune
+     */
+    static void prune() {
+        GarbageCollector collector = new GarbageCollector();
+        collector.mark();
+        long[] removed = collector.unmarked(collector.snapshot.packed());
+        ObjectStore.prune(collector.snapshot, collector::marked, collector.expiry);
+        Logs.retain(ObjectStore::contains);
+        report(removed);
+    }
+
+    /**
+     * Marks the objects to be kept
+     */
+    private void mark() {
+        for (String name : Journal.list(GITLET_HEADS)) {
+            reach(Branch.loadBranch(name).getPointerId(), commits);
+        }
+        StageArea sa = StageArea.stageArea();
+        sa.getTracked().values().forEach(id -> reach(id, blobs));
+        sa.getAdded().values().forEach(id -> reach(id, blobs));
+        for (Logs.Commits entry : Logs.getLog()) {
+            Commit comm = entry.getCommit();
+            if (comm != null && comm.getDateRaw().getTime() < expiry) {
+                break;
+            }
+            reach(entry.getCommitId(), commits);
+        }
+        follow();
+
+        // the recent objects, with the bases of the recent delta blobs
+        for (int pos = 0; pos < snapshot.size(); pos++) {
+            if (!marked(pos) && snapshot.time(pos) >= expiry) {
+                set(pos);
+                String baseId = Blob.deltaBase(snapshot.id(pos));
+                if (baseId != null) {
+                    reach(baseId, blobs);
+                }
+            }
+        }
+        follow();
+    }
+
+    /**
+     * Returns the number of objects from given position which are not kept, and their size on the disk
+     * -- a loose copy of a packed object is not counted, the object itself is still there
+     *
+     * @param from
+     * @return  {number, bytes}
+     */
+    private long[] unmarked(int from) {
+        long[] removed = new long[2];
+        for (int pos = from; pos < snapshot.size(); pos++) {
+            if (!marked(pos) && !snapshot.duplicate(pos)) {
+                removed[0] += 1;
+                removed[1] += snapshot.length(pos);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Follows the references of the reached objects until none is left
+     */
+    private void follow() {
+        while (!commits.isEmpty() || !trees.isEmpty() || !blobs.isEmpty()) {
+            if (!commits.isEmpty()) {
+                Commit comm = Commit.loadCommit(commits.pop());
+                comm.getParentIds().forEach(id -> reach(id, commits));
+                if (comm.savedTreeId() != null) {
+                    reach(comm.savedTreeId(), trees);
+                } else {
+                    comm.getfmap().values().forEach(id -> reach(id, blobs));
+                }
+            } else if (!trees.isEmpty()) {
+                List<String> subtrees = new ArrayList<>();
+                List<String> files = new ArrayList<>();
+                Tree.references(trees.pop(), subtrees, files);
+                subtrees.forEach(id -> reach(id, trees));
+                files.forEach(id -> reach(id, blobs));
+            } else {
+                String baseId = Blob.deltaBase(blobs.pop());
+                if (baseId != null) {
+                    reach(baseId, blobs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the object with given id, and adds it to the objects to be followed if it was not marked
+     * -- an object saved after the collection started has no position, and is not followed
+     *
+     * @param id
+     * @param pending
+     */
+    private void reach(String id, ArrayDeque<String> pending) {
+        int pos = snapshot.position(id);
+        if (pos >= 0 && !marked(pos)) {
+            set(pos);
+            pending.push(id);
+        }
+    }
+
+    private boolean marked(int pos) {
+        return pos >= 0 && (marks[pos >> 6] & (1L << pos)) != 0;
+    }
+
+    private void set(int pos) {
+        marks[pos >> 6] |= 1L << pos;
+    }
+
+    /**
+     * Prints the number of objects removed, and the bytes reclaimed
+     *
+     * @param removed   {number, bytes}
+     */
+    private static void report(long[] removed) {
+        System.out.println("Removed " + removed[0] + " unreachable object" + (removed[0] == 1 ? "" : "s")
+                + ", " + removed[1] + " bytes reclaimed.");
+    }
+}
@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static gitlet.Repository.GITLET_IGNORE;
+
+/**
+ * Ignore
+ *  The rules of .gitletignore, which keep files out of "status", "add" of a directory and checkout.
+ *
+ *      # comment           a line starting with '#' is skipped, and so is an empty line
+ *      *.class             a pattern without '/' matches a file or directory name at any depth
+ *      /build              a leading '/' (or a '/' in the middle) anchors the pattern at the working directory
+ *      out/                a trailing '/' matches directories only
+ *      docs/**             "**" matches any number of directories
+ *      !keep.class         '!' includes again what an earlier rule ignored
+ *  The last rule matching a path decides. An ignored directory is not walked at all,
+ *  so a file inside it cannot be included again (as in git).
+ *  A tracked file is never ignored: ignoring only hides files which are not tracked.
+ *
+ *  The rules are compiled once into a trie of path components:
+ *      a literal component is a hash lookup, a component with '*', '?' or '[...]' is a regular expression,
+ *      and "**" is a node which stays active for any number of components.
+ *  A path is matched one component at a time (see State), so the walker matches
+ *  each file with a single step from the state of its directory.
+ *
+ * @author Gaon Choi
+ */
+class Ignore {
+    /** A node of the trie */
+    private static class Node {
+        /** component <--> child */
+        final HashMap<String, Node> literals = new HashMap<>();
+
+        /** children of the components with wildcards */
+        final List<Pattern> globs = new ArrayList<>();
+        final List<Node> globNodes = new ArrayList<>();
+
+        /** child of "**" */
+        Node any;
+
+        /** Whether this node is a "**" (matches any number of components) */
+        final boolean isAny;
+
+        /** The latest rule ending at this node, for any path / for directories only (-1: none) */
+        int rule = -1;
+        int dirRule = -1;
+
+        Node(boolean isAny) {
+            this.isAny = isAny;
+        }
+    }
+
+    /** The rules which include again (rule index <--> negated) */
+    private final boolean[] negated;
+
+    /** The state of the working directory */
+    private final State start;
+
+    /** The state of the paths which no rule can match */
+    private final State none = new State(new Node[0]);
+
+    /** The compiled rules, with the modified time and size of the file they were compiled from */
+    private static Ignore cached;
+    private static long cachedStamp;
+
+    private Ignore(List<String> lines) {
+        Node root = new Node(false);
+        List<Boolean> negations = new ArrayList<>();
+        for (String line : lines) {
+            compile(root, line, negations);
+        }
+        negated = new boolean[negations.size()];
+        for (int i = 0; i < negated.length; i++) {
+            negated[i] = negations.get(i);
+        }
+        start = new State(closure(List.of(root)));
+    }
+
+    /**
+     * Returns the rules of .gitletignore
+     * -- compiled only when the file has been changed since the previous call (e.g. in a daemon)
+     *
+     * @return
+     */
+    static Ignore load() {
+        long stamp = GITLET_IGNORE.lastModified() * 31 + GITLET_IGNORE.length();
+        if (cached == null || stamp != cachedStamp) {
+            List<String> lines = GITLET_IGNORE.isFile()
+                    ? Utils.readContentsAsString(GITLET_IGNORE).lines().toList()
+                    : List.of();
+            cached = new Ignore(lines);
+            cachedStamp = stamp;
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the state of the working directory
+     *
+     * @return
+     */
+    State start() {
+        return start;
+    }
+
+    /**
+     * Checks whether given path is ignored, or is in an ignored directory
+     *
+     * @param path  a file path relative to the working directory
+     * @return
+     */
+    boolean ignored(String path) {
+        State state = start;
+        String[] names = path.split(Pattern.quote(File.separator));
+        for (int i = 0; i < names.length; i++) {
+            state = state.next(names[i]);
+            if (state.ignored(i < names.length - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The nodes of the trie which match a path
+     * -- a state never changes, so it can be shared by the threads of the walker
+     */
+    class State {
+        private final Node[] nodes;
+
+        private State(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        /**
+         * Returns the state of the path which is this path followed by given component
+         *
+         * @param name
+         * @return
+         */
+        State next(String name) {
+            if (nodes.length == 0) {
+                return this;
+            }
+            List<Node> next = null;
+            for (Node node : nodes) {
+                Node child = node.literals.isEmpty() ? null : node.literals.get(name);
+                if (node.isAny || child != null || !node.globs.isEmpty()) {
+                    next = next != null ? next : new ArrayList<>(4);
+                    if (node.isAny) {
+                        next.add(node);
+                    }
+                    if (child != null) {
+                        next.add(child);
+                    }
+                    for (int i = 0; i < node.globs.size(); i++) {
+                        if (node.globs.get(i).matcher(name).matches()) {
+                            next.add(node.globNodes.get(i));
+                        }
+                    }
+                }
+            }
+            return next == null || next.isEmpty() ? none : new State(closure(next));
+        }
+
+        /**
+         * Checks whether the path of this state is ignored
+         *
+         * @param isDir     whether the path is a directory
+         * @return
+         */
+        boolean ignored(boolean isDir) {
+            int rule = -1;
+            for (Node node : nodes) {
+                rule = Math.max(rule, node.rule);
+                if (isDir) {
+                    rule = Math.max(rule, node.dirRule);
+                }
+            }
+            return rule >= 0 && !negated[rule];
+        }
+    }
+
+    /**
+     * Returns given nodes with the "**" nodes reachable from them (matching no component), without duplicates
+     *
+     * @param nodes
+     * @return
+     */
+    private static Node[] closure(List<Node> nodes) {
+        List<Node> result = new ArrayList<>(nodes.size() + 2);
+        for (Node node : nodes) {
+            for (Node n = node; n != null; n = n.any) {
+                if (!result.contains(n)) {
+                    result.add(n);
+                }
+            }
+        }
+        return result.toArray(new Node[0]);
+    }
+
+    /**
+     * Adds the rule of given line to the trie
+     *
+     * @param root
+     * @param line
+     * @param negations     the rules added so far (rule index <--> negated)
+     */
+    private static void compile(Node root, String line, List<Boolean> negations) {
+        String pattern = line.strip();
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return;
+        }
+        boolean negate = pattern.startsWith("!");
+        if (negate || pattern.startsWith("\\#") || pattern.startsWith("\\!")) {
+            pattern = pattern.substring(1);
+        }
+        boolean dirOnly = pattern.endsWith("/");
+        while (pattern.endsWith("/")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.isEmpty()) {
+            return;
+        }
+
+        Node node = root;
+        if (!anchored) {
+            node = anyChild(node);
+        }
+        for (String component : pattern.split("/")) {
+            if (component.isEmpty()) {
+                continue;
+            }
+            if (component.equals("**")) {
+                node = node.isAny ? node : anyChild(node);
+            } else if (isLiteral(component)) {
+                node = node.literals.computeIfAbsent(component.replace("\\", ""), c -> new Node(false));
+            } else {
+                node = globChild(node, component);
+            }
+        }
+
+        int rule = negations.size();
+        negations.add(negate);
+        if (dirOnly) {
+            node.dirRule = rule;
+        } else {
+            node.rule = rule;
+        }
+    }
+
+    private static Node anyChild(Node node) {
+        if (node.any == null) {
+            node.any = new Node(true);
+        }
+        return node.any;
+    }
+
+    private static Node globChild(Node node, String component) {
+        String regex = toRegex(component);
+        for (int i = 0; i < node.globs.size(); i++) {
+            if (node.globs.get(i).pattern().equals(regex)) {
+                return node.globNodes.get(i);
+            }
+        }
+        Node child = new Node(false);
+        node.globs.add(Pattern.compile(regex));
+        node.globNodes.add(child);
+        return child;
+    }
+
+    private static boolean isLiteral(String component) {
+        for (int i = 0; i < component.length(); i++) {
+            char c = component.charAt(i);
+            if (c == '*' || c == '?' || c == '[') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the regular expression of a component with wildcards
+     *      *  -> any characters,  ? -> a character,  [abc], [a-z], [!abc] -> a character in (not in) the set
+     *
+     * @param glob
+     * @return
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            int close = c == '[' ? glob.indexOf(']', i + 2) : -1;
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (close > 0) {
+                String set = glob.substring(i + 1, close);
+                regex.append('[');
+                if (set.startsWith("!") || set.startsWith("^")) {
+                    regex.append('^');
+                    set = set.substring(1);
+                }
+                regex.append(set.replace("\\", "\\\\").replace("[", "\\[").replace("&&", "\\&&"));
+                regex.append(']');
+                i = close;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,629 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.GITLET_JOURNAL;
+import static gitlet.Repository.GITLET_LOCK;
+
+/**
+ * Journal
+ *  Every update of the metadata (staging area, HEAD, branches, logs, config, version, pack index) made by a command
+ *  is kept in memory, and saved at the end of the command as a single transaction,
+ *  so that a command killed in the middle never leaves a half-written file behind.
+ *
+ *  1) the new objects and the commit-graph are synced (the metadata may refer to them)
+ *  2) the journal is written to a temporary file, synced, and renamed to .gitlet/journal
+ *     -> the transaction is committed
+ *  3) every update is applied: a file is written to a temporary file and renamed over the old one,
+ *     an append is written at its offset
+ *
+ *  The files updated in 3) are not synced: the journal is kept after the command,
+ *  and it is replayed when the next command starts, which rewrites any file that doesn't match it.
+ *  The updates of the following commands are merged into the same journal (the latest update of each file),
+ *  until it grows over CHECKPOINT_SIZE: then the files of the old journal are synced once,
+ *  and the journal starts over with the updates of the command.
+ *  So a command syncs the journal and its folder, instead of every file it rewrites.
+ *
+ *  The updates are visible to the command itself before they are saved (see read, exists, list),
+ *  except the appends to the logs, which are read only by the commands which don't append.
+ *  A command which fails (with an error message or a bug) saves none of its updates.
+ *
+ *  A command locks .gitlet/lock before the journal is replayed, and holds it until its updates are applied,
+ *  so that the commands of different processes run one after another: a command never merges its updates
+ *  into a journal which another command has replaced since it was loaded.
+ *
+ *  File format (.gitlet/journal)
+ *      "GJNL" | version(int) | N(int) | { update }* | crc32 of everything before(long)
+ *      update: kind(byte) | path relative to .gitlet(UTF) | offset(long) | length(int) | data
+ *
+ * @author Gaon Choi
+ */
+class Journal {
+    /** Version of the journal format */
+    private static final int VERSION = 1;
+
+    /** Kinds of update */
+    private static final byte WRITE = 1;
+    private static final byte DELETE = 2;
+    private static final byte APPEND = 3;
+
+    /** The files of the journal are synced once it grows over this size (bytes) */
+    private static final long CHECKPOINT_SIZE = 1L << 20;
+
+    /** Prefix of the temporary files inside .gitlet */
+    private static final String TEMP_PREFIX = "tmp_";
+
+    /** An update of a file */
+    private static class Update {
+        final byte kind;
+        final long offset;      // APPEND: the length of the file before the update
+        final byte[] data;
+
+        Update(byte kind, long offset, byte[] data) {
+            this.kind = kind;
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    /** file <--> the update made by this command (not saved yet) */
+    private static final LinkedHashMap<File, Update> PENDING = new LinkedHashMap<>();
+
+    /** file <--> the update in the saved journal (already applied) */
+    private static LinkedHashMap<File, Update> committed = new LinkedHashMap<>();
+
+    /** The new loose objects of this command, synced before the journal */
+    private static final List<File> OBJECTS = new ArrayList<>();
+
+    /** The files kept open by this command (e.g. a lock, see ObjectStore.lockPack) until its updates are applied */
+    private static final List<Closeable> HELD = new ArrayList<>();
+
+    /**
+     * Replaces the contents of given file
+     *
+     * @param file
+     * @param data
+     */
+    static void write(File file, byte[] data) {
+        PENDING.put(file, new Update(WRITE, 0, data));
+    }
+
+    /**
+     * Deletes given file
+     *
+     * @param file
+     */
+    static void delete(File file) {
+        PENDING.put(file, new Update(DELETE, 0, null));
+    }
+
+    /**
+     * Appends given bytes to the end of given file
+     *
+     * @param file
+     * @param data
+     */
+    static void append(File file, byte[] data) {
+        Update old = PENDING.get(file);
+        if (old == null) {
+            PENDING.put(file, new Update(APPEND, file.length(), data));
+        } else if (old.kind == DELETE) {
+            PENDING.put(file, new Update(WRITE, 0, data));
+        } else {
+            PENDING.put(file, new Update(old.kind, old.offset, concat(old.data, data)));
+        }
+    }
+
+    /**
+     * Returns the contents of given file, with the updates of this command
+     * -- if the file doesn't exist -> return null
+     *
+     * @param file
+     * @return
+     */
+    static byte[] read(File file) {
+        Update update = PENDING.get(file);
+        if (update != null && update.kind == WRITE) {
+            return update.data;
+        }
+        if (update != null && update.kind == DELETE) {
+            return null;
+        }
+        byte[] data = file.isFile() ? Utils.readContents(file) : null;
+        if (update != null) {
+            data = concat(data == null ? new byte[0] : data, update.data);
+        }
+        return data;
+    }
+
+    /**
+     * Returns the contents of given file like read, but maps the file (read-only) instead of reading it
+     * if this command has not updated it, so that a large file is read only where it is used (see StageArea)
+     * -- the mapping stays valid after the file is updated: a written file is renamed over the old one,
+     *    and an append only writes after its end
+     * -- if the file doesn't exist -> return null
+     *
+     * @param file
+     * @return
+     */
+    static ByteBuffer map(File file) {
+        if (PENDING.containsKey(file)) {
+            byte[] data = read(file);
+            return data == null ? null : ByteBuffer.wrap(data);
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether given file exists, with the updates of this command
+     *
+     * @param file
+     * @return
+     */
+    static boolean exists(File file) {
+        Update update = PENDING.get(file);
+        return update == null ? file.isFile() : update.kind != DELETE;
+    }
+
+    /**
+     * Returns the length of given file, with the updates of this command
+     *
+     * @param file
+     * @return
+     */
+    static long length(File file) {
+        Update update = PENDING.get(file);
+        if (update == null) {
+            return file.length();
+        }
+        switch (update.kind) {
+            case WRITE:
+                return update.data.length;
+            case APPEND:
+                return update.offset + update.data.length;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the names of the plain files in given folder (sorted), with the updates of this command
+     *
+     * @param dir
+     * @return
+     */
+    static List<String> list(File dir) {
+        List<String> files = Utils.plainFilenamesIn(dir);
+        LinkedHashSet<String> names = new LinkedHashSet<>(files == null ? List.of() : files);
+        for (Map.Entry<File, Update> entry : PENDING.entrySet()) {
+            if (entry.getKey().getParentFile().equals(dir)) {
+                if (entry.getValue().kind == DELETE) {
+                    names.remove(entry.getKey().getName());
+                } else {
+                    names.add(entry.getKey().getName());
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(names);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Records a new loose object, so that it is synced before the metadata which refers to it
+     * -- synchronized, since the blobs of "add" are saved in parallel
+     *
+     * @param file
+     */
+    static synchronized void created(File file) {
+        OBJECTS.add(file);
+    }
+
+    /**
+     * Keeps given file open until the updates of this command are applied or dropped, and then closes it
+     * -- e.g. a lock which must be held until the files written under it are in place
+     *
+     * @param file
+     */
+    static synchronized void hold(Closeable file) {
+        HELD.add(file);
+    }
+
+    /**
+     * Drops the saved update of given file from the journal, so that it is never replayed over the file,
+     * which is about to be rewritten outside the journal (see ObjectStore.repack)
+     * -- the file is synced first, since its update is not in the journal anymore
+     *
+     * @param file
+     */
+    static void forget(File file) {
+        if (!committed.containsKey(file)) {
+            return;
+        }
+        try {
+            if (file.exists()) {
+                sync(file);
+            }
+            committed.remove(file);
+            save(committed);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot save the changes: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Saves the updates of this command as a single transaction, and applies them
+     * -- called when a command ends successfully (see Main.execute)
+     */
+    static void commit() {
+        try {
+            syncObjects();
+            if (PENDING.isEmpty()) {
+                return;
+            }
+            CommitGraph.flush();
+
+            LinkedHashMap<File, Update> updates = merge(committed, PENDING);
+            if (size(updates) > CHECKPOINT_SIZE) {
+                checkpoint(committed);
+                updates = new LinkedHashMap<>(PENDING);
+            }
+            save(updates);
+            committed = updates;
+            for (Map.Entry<File, Update> entry : PENDING.entrySet()) {
+                apply(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot save the changes: %s", excp.getMessage());
+        } finally {
+            PENDING.clear();
+            OBJECTS.clear();
+            release();
+        }
+    }
+
+    /**
+     * Drops the updates of this command
+     * -- called when a command fails (see Main.execute)
+     */
+    static void abort() {
+        PENDING.clear();
+        OBJECTS.clear();
+        release();
+    }
+
+    /**
+     * Closes the files held by this command (see hold)
+     */
+    private static synchronized void release() {
+        for (Closeable file : HELD) {
+            try {
+                file.close();
+            } catch (IOException excp) {
+                // ignore; nothing was written through it
+            }
+        }
+        HELD.clear();
+    }
+
+    /**
+     * Replays the saved journal, which brings back the updates lost by a crash
+     * -- called when a command starts (see Main.execute)
+     *    0) the repository is locked until the command ends (waits for the command of another process)
+     *    1) temporary files left by a killed command are deleted
+     *    2) every file which doesn't match its update in the journal is rewritten
+     */
+    static void recover() {
+        PENDING.clear();
+        OBJECTS.clear();
+        release();
+        committed = new LinkedHashMap<>();
+        if (!GITLET_DIR.isDirectory()) {
+            return;
+        }
+        lock();
+        for (String name : Utils.plainFilenamesIn(GITLET_DIR)) {
+            if (name.startsWith(TEMP_PREFIX)) {
+                Utils.join(GITLET_DIR, name).delete();
+            }
+        }
+        if (!GITLET_JOURNAL.exists()) {
+            return;
+        }
+        LinkedHashMap<File, Update> updates = load();
+        if (updates == null) {
+            // never happens unless the disk is broken: the journal is synced before it is renamed
+            System.err.println("Warning: ignored a broken journal");
+            GITLET_JOURNAL.delete();
+            return;
+        }
+        try {
+            for (Map.Entry<File, Update> entry : updates.entrySet()) {
+                if (!applied(entry.getKey(), entry.getValue())) {
+                    apply(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot recover the changes: %s", excp.getMessage());
+        }
+        committed = updates;
+    }
+
+    /**
+     * Locks the repository until the updates of this command are applied or dropped (see hold)
+     */
+    private static void lock() {
+        try {
+            RandomAccessFile file = new RandomAccessFile(GITLET_LOCK, "rw");
+            hold(file);
+            file.getChannel().lock();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot lock the repository: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the updates of the saved journal followed by the updates of this command
+     * (an append to a file is merged with the previous update of the file)
+     *
+     * @param saved
+     * @param pending
+     * @return
+     */
+    private static LinkedHashMap<File, Update> merge(Map<File, Update> saved, Map<File, Update> pending) {
+        LinkedHashMap<File, Update> result = new LinkedHashMap<>(saved);
+        for (Map.Entry<File, Update> entry : pending.entrySet()) {
+            Update update = entry.getValue();
+            Update old = result.remove(entry.getKey());
+            if (update.kind == APPEND && old != null && old.kind != DELETE
+                    && length(old) == update.offset) {
+                update = new Update(old.kind, old.offset, concat(old.data, update.data));
+            }
+            result.put(entry.getKey(), update);
+        }
+        return result;
+    }
+
+    private static long length(Update update) {
+        return update.kind == APPEND ? update.offset + update.data.length : update.data.length;
+    }
+
+    private static long size(Map<File, Update> updates) {
+        long size = 0;
+        for (Map.Entry<File, Update> entry : updates.entrySet()) {
+            Update update = entry.getValue();
+            size += entry.getKey().getPath().length() + 16 + (update.data == null ? 0 : update.data.length);
+        }
+        return size;
+    }
+
+    /**
+     * Syncs the files of given updates, which were applied without being synced
+     *
+     * @param updates
+     */
+    private static void checkpoint(Map<File, Update> updates) throws IOException {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (Map.Entry<File, Update> entry : updates.entrySet()) {
+            if (entry.getValue().kind != DELETE && entry.getKey().exists()) {
+                sync(entry.getKey());
+            }
+            dirs.add(entry.getKey().getParentFile());
+        }
+        for (File dir : dirs) {
+            syncDir(dir);
+        }
+    }
+
+    /**
+     * Syncs the new loose objects and their folders
+     * -- the objects are synced in parallel (fork-join), so that the waits for the disk overlap
+     */
+    private static void syncObjects() throws IOException {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        List<File> files = new ArrayList<>();
+        for (File file : OBJECTS) {
+            if (file.exists()) {
+                files.add(file);
+                dirs.add(file.getParentFile());
+            }
+        }
+        try {
+            files.parallelStream().forEach(file -> {
+                try {
+                    sync(file);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            });
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        }
+        for (File dir : dirs) {
+            syncDir(dir);
+        }
+        OBJECTS.clear();
+    }
+
+    /**
+     * Writes the journal for given updates (synced, and then renamed)
+     *
+     * @param updates
+     */
+    private static void save(Map<File, Update> updates) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("GJNL");
+        out.writeInt(VERSION);
+        out.writeInt(updates.size());
+        for (Map.Entry<File, Update> entry : updates.entrySet()) {
+            Update update = entry.getValue();
+            byte[] data = update.data == null ? new byte[0] : update.data;
+            out.writeByte(update.kind);
+            out.writeUTF(GITLET_DIR.toPath().relativize(entry.getKey().toPath()).toString());
+            out.writeLong(update.offset);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+
+        File tmp = File.createTempFile(TEMP_PREFIX, null, GITLET_DIR);
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            bytes.writeTo(file);
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), GITLET_JOURNAL.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDir(GITLET_DIR);
+    }
+
+    /**
+     * Reads the saved journal
+     * -- if the journal is broken -> return null
+     *
+     * @return
+     */
+    private static LinkedHashMap<File, Update> load() {
+        byte[] bytes = Utils.readContents(GITLET_JOURNAL);
+        if (bytes.length < 20) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            in.skipBytes(bytes.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, new byte[] {'G', 'J', 'N', 'L'}) || in.readInt() != VERSION) {
+                return null;
+            }
+            LinkedHashMap<File, Update> updates = new LinkedHashMap<>();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                byte kind = in.readByte();
+                File file = Utils.join(GITLET_DIR, in.readUTF());
+                long offset = in.readLong();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                updates.put(file, new Update(kind, offset, kind == DELETE ? null : data));
+            }
+            return updates;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether given update is found in the file
+     *
+     * @param file
+     * @param update
+     * @return
+     */
+    private static boolean applied(File file, Update update) throws IOException {
+        if (update.kind == DELETE) {
+            return !file.exists();
+        }
+        if (!file.isFile() || file.length() != length(update)) {
+            return false;
+        }
+        byte[] data = new byte[update.data.length];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(update.offset);
+            in.readFully(data);
+        }
+        return Arrays.equals(data, update.data);
+    }
+
+    /**
+     * Applies given update to the file (the file is not synced)
+     *
+     * @param file
+     * @param update
+     */
+    private static void apply(File file, Update update) throws IOException {
+        switch (update.kind) {
+            case WRITE:
+                File tmp = File.createTempFile(TEMP_PREFIX, null, GITLET_DIR);
+                Files.write(tmp.toPath(), update.data);
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                break;
+            case DELETE:
+                Files.deleteIfExists(file.toPath());
+                break;
+            case APPEND:
+                try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                    out.setLength(update.offset);
+                    out.seek(update.offset);
+                    out.write(update.data);
+                }
+                break;
+            default:
+                throw new IOException("unknown update of " + file.getName());
+        }
+    }
+
+    private static void sync(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    /**
+     * Syncs a folder, so that the files created / renamed / deleted inside it are saved
+     * -- not supported on every platform (e.g. Windows), where it is skipped
+     *
+     * @param dir
+     */
+    private static void syncDir(File dir) {
+        try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            // the folder cannot be synced on this platform
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
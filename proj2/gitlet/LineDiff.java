@@ -0,0 +1,370 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * LineDiff
+ *  The differences between the lines of two files (Myers' O(ND) algorithm, in linear space).
+ *
+ *  The files are read as streams of lines, and every distinct line is kept only once (see Lines):
+ *  a file becomes an array of line numbers, so the lines are compared as ints.
+ *  Before the diff, the common first and last lines are skipped, and so are the lines found in only
+ *  one of the files (they cannot match anything), so two files with little in common are compared quickly.
+ *
+ *  A hunk is a region of the first file replaced by a region of the second one:
+ *      {aStart, aEnd, bStart, bEnd}    lines [aStart, aEnd) of A are replaced with lines [bStart, bEnd) of B
+ *  (an insertion has aStart == aEnd, a deletion has bStart == bEnd)
+ *
+ * @author Gaon Choi
+ */
+class LineDiff {
+    /** The size of the buffer for reading the lines */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The least number of edits searched for a middle snake (see Myers) */
+    private static final int COST_MIN = 256;
+
+    /**
+     * The distinct lines of some files, each with its number
+     */
+    static class Lines {
+        /** line (with its '\n') <--> number */
+        private final HashMap<ByteBuffer, Integer> numbers = new HashMap<>();
+        private final List<ByteBuffer> lines = new ArrayList<>();
+
+        /**
+         * Reads the lines of the blob with given id
+         * -- if id is null (no such file) -> return no lines
+         *
+         * @param id
+         * @return  the numbers of the lines
+         */
+        int[] read(String id) {
+            if (id == null) {
+                return new int[0];
+            }
+            try (InputStream in = Blob.open(id)) {
+                return read(in);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read blob %s: %s", id, excp.getMessage());
+            }
+        }
+
+        /**
+         * Reads the lines of a stream
+         *
+         * @param in
+         * @return  the numbers of the lines
+         * @throws IOException
+         */
+        int[] read(InputStream in) throws IOException {
+            int[] result = new int[256];
+            int n = 0;
+            byte[] buf = new byte[BUFFER_SIZE];
+            byte[] line = new byte[256];
+            int length = 0;
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buf[i] != '\n') {
+                        continue;
+                    }
+                    line = append(line, length, buf, start, i + 1 - start);
+                    length += i + 1 - start;
+                    start = i + 1;
+                    result = n == result.length ? Arrays.copyOf(result, 2 * n) : result;
+                    result[n++] = number(line, length);
+                    length = 0;
+                }
+                line = append(line, length, buf, start, read - start);
+                length += read - start;
+            }
+            if (length > 0) {   // the last line without '\n'
+                result = n == result.length ? Arrays.copyOf(result, n + 1) : result;
+                result[n++] = number(line, length);
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        private static byte[] append(byte[] line, int length, byte[] buf, int off, int len) {
+            if (length + len > line.length) {
+                line = Arrays.copyOf(line, Math.max(2 * line.length, length + len));
+            }
+            System.arraycopy(buf, off, line, length, len);
+            return line;
+        }
+
+        private int number(byte[] line, int length) {
+            ByteBuffer key = ByteBuffer.wrap(Arrays.copyOf(line, length));
+            Integer number = numbers.putIfAbsent(key, lines.size());
+            if (number == null) {
+                lines.add(key);
+                return lines.size() - 1;
+            }
+            return number;
+        }
+
+        /**
+         * Returns the number of distinct lines
+         *
+         * @return
+         */
+        int size() {
+            return lines.size();
+        }
+
+        /**
+         * Checks whether the line with given number ends with '\n'
+         * (only the last line of a file may not)
+         *
+         * @param number
+         * @return
+         */
+        boolean endsWithNewline(int number) {
+            ByteBuffer line = lines.get(number);
+            return line.limit() > 0 && line.get(line.limit() - 1) == '\n';
+        }
+
+        /**
+         * Writes the lines [from, to) of a file
+         *
+         * @param file      the numbers of the lines of the file
+         * @param from
+         * @param to
+         * @param out
+         * @throws IOException
+         */
+        void write(int[] file, int from, int to, OutputStream out) throws IOException {
+            for (int i = from; i < to; i++) {
+                ByteBuffer line = lines.get(file[i]);
+                out.write(line.array(), 0, line.limit());
+            }
+        }
+    }
+
+    /**
+     * Returns the hunks which change A into B (in order)
+     *
+     * @param a         the line numbers of A
+     * @param b         the line numbers of B
+     * @param lines     the number of distinct lines (see Lines.size)
+     * @return
+     */
+    static List<int[]> diff(int[] a, int[] b, int lines) {
+        boolean[] changedA = new boolean[a.length];
+        boolean[] changedB = new boolean[b.length];
+
+        // the lines found only in one of the files are changed, the others are diffed
+        boolean[] inA = new boolean[lines];
+        boolean[] inB = new boolean[lines];
+        for (int line : a) {
+            inA[line] = true;
+        }
+        for (int line : b) {
+            inB[line] = true;
+        }
+        int[] indexA = matchable(a, inB, changedA);
+        int[] indexB = matchable(b, inA, changedB);
+        new Myers(select(a, indexA), select(b, indexB), indexA, indexB, changedA, changedB).compare();
+
+        List<int[]> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < b.length && changedB[j]) {
+                j += 1;
+            }
+            hunks.add(new int[] {aStart, i, bStart, j});
+        }
+        return hunks;
+    }
+
+    /**
+     * Returns the positions of the lines which are in the other file too, and marks the others changed
+     *
+     * @param file
+     * @param inOther
+     * @param changed
+     * @return
+     */
+    private static int[] matchable(int[] file, boolean[] inOther, boolean[] changed) {
+        int[] index = new int[file.length];
+        int n = 0;
+        for (int i = 0; i < file.length; i++) {
+            if (inOther[file[i]]) {
+                index[n++] = i;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(index, n);
+    }
+
+    private static int[] select(int[] file, int[] index) {
+        int[] result = new int[index.length];
+        for (int i = 0; i < index.length; i++) {
+            result[i] = file[index[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Myers' algorithm on the matchable lines: each region is split at the middle snake
+     * (the snake in the middle of a shortest edit script), and both halves are compared again
+     * -- if the middle snake is not found within COST_MIN or sqrt(N + M) edits (as in git's xdiff),
+     *    the region is split at the point reached furthest instead:
+     *    the diff is still correct, but may not be the shortest one, and the time stays about O(N sqrt(N))
+     */
+    private static class Myers {
+        private final int[] a;
+        private final int[] b;
+
+        /** position in a (b) <--> position in the file */
+        private final int[] indexA;
+        private final int[] indexB;
+        private final boolean[] changedA;
+        private final boolean[] changedB;
+
+        /** The furthest x on each diagonal, forward and backward */
+        private final int[] forward;
+        private final int[] backward;
+
+        Myers(int[] a, int[] b, int[] indexA, int[] indexB, boolean[] changedA, boolean[] changedB) {
+            this.a = a;
+            this.b = b;
+            this.indexA = indexA;
+            this.indexB = indexB;
+            this.changedA = changedA;
+            this.changedB = changedB;
+            int size = a.length + b.length + 5;
+            forward = new int[size];
+            backward = new int[size];
+        }
+
+        void compare() {
+            compare(0, a.length, 0, b.length);
+        }
+
+        private void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                for (int i = aLo; i < aHi; i++) {
+                    changedA[indexA[i]] = true;
+                }
+                for (int j = bLo; j < bHi; j++) {
+                    changedB[indexB[j]] = true;
+                }
+                return;
+            }
+            // both are not empty, and differ at both ends: at least 2 edits, so both halves are smaller
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, aLo + snake[0], bLo, bLo + snake[1]);
+            compare(aLo + snake[2], aHi, bLo + snake[3], bHi);
+        }
+
+        /**
+         * Returns the middle snake of the region, relative to (aLo, bLo): {xStart, yStart, xEnd, yEnd}
+         */
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int max = (n + m + 1) / 2;
+            int off = max + 1;
+            int limit = Math.max(COST_MIN, (int) Math.sqrt(n + m));
+            forward[off + 1] = 0;
+            backward[off + 1] = 0;
+            for (int d = 0; d <= max; d++) {
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || (k != d && forward[off + k - 1] < forward[off + k + 1])
+                            ? forward[off + k + 1] : forward[off + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x;
+                    int y0 = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[off + k] = x;
+                    int r = delta - k;  // the same diagonal, backward
+                    if (odd && r >= -(d - 1) && r <= d - 1 && x + backward[off + r] >= n) {
+                        return new int[] {x0, y0, x, y};
+                    }
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || (k != d && backward[off + k - 1] < backward[off + k + 1])
+                            ? backward[off + k + 1] : backward[off + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x;
+                    int y0 = y;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[off + k] = x;
+                    int f = delta - k;  // the same diagonal, forward
+                    if (!odd && f >= -d && f <= d && x + forward[off + f] >= n) {
+                        return new int[] {n - x, m - y, n - x0, m - y0};
+                    }
+                }
+                if (d >= limit) {
+                    int[] split = furthest(d, n, m, off);
+                    if (split != null) {
+                        return split;
+                    }
+                }
+            }
+            throw new IllegalStateException("no middle snake");
+        }
+
+        /**
+         * Returns the point reached furthest (forward or backward) after D edits, as an empty snake
+         * -- if no point inside the region is reached -> return null
+         */
+        private int[] furthest(int d, int n, int m, int off) {
+            int best = 0;
+            int[] split = null;
+            for (int k = -d; k <= d; k += 2) {
+                int x = forward[off + k];
+                int y = x - k;
+                if (x <= n && y >= 0 && y <= m && x + y > best && x + y < n + m) {
+                    best = x + y;
+                    split = new int[] {x, y, x, y};
+                }
+                x = backward[off + k];
+                y = x - k;
+                if (x <= n && y >= 0 && y <= m && x + y > best && x + y < n + m) {
+                    best = x + y;
+                    split = new int[] {n - x, m - y, n - x, m - y};
+                }
+            }
+            return split;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * LogWriter
+ *  Prints the entries of "log" and "global-log" while the commits are walked,
+ *  and tells the walk to stop as soon as nothing more will be printed:
+ *      -n N            at most N entries
+ *      --since DATE    the commits made at or after DATE only (yyyy-MM-dd, or yyyy-MM-ddTHH:mm[:ss]);
+ *                      the commits are walked from the latest one, so the walk stops at the first older commit
+ *      --oneline       one line for each commit: its id and the first line of its message
+ *  so "log -n 20" loads 20 commits, however long the history is.
+ *
+ *  Each entry is formatted into the same StringBuilder, and written into a buffered writer
+ *  which is flushed at the end. The dates are formatted by an immutable DateTimeFormatter (see Commit).
+ *
+ * @author Gaon Choi
+ */
+class LogWriter {
+    /** The size of the buffer of the output */
+    private static final int BUFFER_SIZE = 65536;
+
+    /** The most entries to be printed */
+    private final long limit;
+
+    /** The commits made before this time are not printed (milliseconds) */
+    private final long since;
+
+    private final boolean oneline;
+
+    private final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+
+    /** The entry being formatted */
+    private final StringBuilder entry = new StringBuilder(256);
+
+    /** The number of entries printed */
+    private long count;
+
+    private LogWriter(long limit, long since, boolean oneline) {
+        this.limit = limit;
+        this.since = since;
+        this.oneline = oneline;
+    }
+
+    /**
+     * Returns the writer for the options of a command
+     * e.g. log -n 20 --since 2024-01-31 --oneline
+     *
+     * @param args  the command and its options
+     * @return
+     */
+    static LogWriter of(String[] args) {
+        long limit = Long.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--oneline")) {
+                oneline = true;
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                limit = parseLimit(args[++i]);
+            } else if (args[i].equals("--since") && i + 1 < args.length) {
+                since = parseDate(args[++i]);
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        return new LogWriter(limit, since, oneline);
+    }
+
+    private static long parseLimit(String arg) {
+        try {
+            long limit = Long.parseLong(arg);
+            if (limit >= 0) {
+                return limit;
+            }
+        } catch (NumberFormatException excp) {
+            // reported below
+        }
+        throw Utils.error("Incorrect operands.");
+    }
+
+    /**
+     * Returns the time of a date (at 00:00), or of a date and time, in the local time zone (milliseconds)
+     *
+     * @param arg
+     * @return
+     */
+    private static long parseDate(String arg) {
+        try {
+            LocalDateTime time = arg.contains("T") ? LocalDateTime.parse(arg) : LocalDate.parse(arg).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Checks whether more entries may be printed
+     * -- the walk checks it before loading the next commit
+     *
+     * @return
+     */
+    boolean wantsMore() {
+        return count < limit;
+    }
+
+    /**
+     * Prints the entry of given commit
+     *
+     * @param comm
+     * @return  whether the walk should go on (false: the commit is older than --since)
+     */
+    boolean write(Commit comm) {
+        if (comm.getDateRaw().getTime() < since) {
+            return false;
+        }
+        entry.setLength(0);
+        if (oneline) {
+            String message = comm.getMessage();
+            int end = message.indexOf('\n');
+            entry.append(comm.getId()).append(' ').append(end < 0 ? message : message.substring(0, end));
+        } else {
+            entry.append("===\n");
+            entry.append("commit ").append(comm.getId()).append('\n');
+            // merge -> prints two parent commitId
+            if (comm.getParentIds().size() > 1) {
+                entry.append("Merge: ").append(comm.getParentIds().get(0))
+                        .append(' ').append(comm.getParentIds().get(1)).append('\n');
+            }
+            entry.append("Date: ").append(Commit.DATE_FORMAT.format(comm.getDateRaw().toInstant())).append('\n');
+            entry.append(comm.getMessage());
+            if (comm.getParent() != null) {
+                entry.append('\n');
+            }
+        }
+        entry.append(System.lineSeparator());
+        try {
+            out.append(entry);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot print the log: %s", excp.getMessage());
+        }
+        count += 1;
+        return true;
+    }
+
+    /**
+     * Flushes the entries printed
+     */
+    void finish() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot print the log: %s", excp.getMessage());
+        }
+    }
+}
@@ -1,92 +1,393 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
 
 import static gitlet.Repository.GITLET_LOG;
 
 /**
  * Represents a series of branch-commit pairs
  *
+ * The log file(.gitlet/logs) is append-only: "git commit" appends one record in O(1),
+ * and "git global-log" streams the records from the newest one,
+ * without loading the whole log (or every commit) into memory.
+ * "git find" looks the records up by the messages of their commits instead (see MessageIndex).
+ *
+ * Record format
+ *      length(int) | payload(length bytes) | offset(long)
+ *      - payload: commit id (40 bytes) | branch name (UTF)
+ *      - offset : the position of this record in the log file,
+ *                 so the previous record can be found by reading backward from the end.
+ *
  * @author Gaon Choi
  */
-public class Logs implements Serializable {
-    private ArrayList<Commits> log;
+public class Logs {
+    /** Size of the length field in front of the payload */
+    private static final int LENGTH_SIZE = 4;
+
+    /** Size of the offset field behind the payload */
+    private static final int OFFSET_SIZE = 8;
 
     /**
-     * Default Constructor for Logs class
+     * Adds branch-commit pair to the end of the log file
+     * -- the record is appended when the command ends (see Journal)
+     * @param branch
+     * @param comm
      */
-    public Logs() {
-        this.log = new ArrayList<Commits>();
+    public static void appendItem(String branch, Commit comm) {
+        Journal.append(GITLET_LOG, encode(branch, comm.getId(), Journal.length(GITLET_LOG)));
     }
 
     /**
-     * Getter for this.log
-     * log is an arrayList of Commits (in reversed chronological order)
-     * @return
+     * Rewrites the log with the records of the commits which pass given test only
+     * -- the log is not written if every record passes (see GarbageCollector)
+     * @param keep
      */
-    public ArrayList<Commits> getLog() {
-        return this.log;
+    static void retain(Predicate<String> keep) {
+        ArrayList<Commits> kept = new ArrayList<>();
+        boolean removed = false;
+        for (Commits entry : getLog()) {
+            if (keep.test(entry.getCommitId())) {
+                kept.add(entry);
+            } else {
+                removed = true;
+            }
+        }
+        if (!removed) {
+            return;
+        }
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            log.writeBytes(encode(kept.get(i).getBranchName(), kept.get(i).getCommitId(), log.size()));
+        }
+        Journal.write(GITLET_LOG, log.toByteArray());
     }
 
     /**
-     * Adds branch-commit pair to the log arrayList
+     * Returns the record of a branch-commit pair at given offset of the log file
      * @param branch
-     * @param comm
+     * @param commitId
+     * @param offset
+     * @return
      */
-    public void appendItem(String branch, Commit comm) {
-        Commits commits = new Commits(branch, comm);
-        this.log.add(0, commits);
-        this.saveLogs();
+    private static byte[] encode(String branch, String commitId, long offset) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream payload = new DataOutputStream(bytes)) {
+            payload.write(commitId.getBytes(StandardCharsets.US_ASCII));
+            payload.writeUTF(branch);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error writing log.");
+        }
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.writeLong(offset);
+            return record.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write log: %s", excp.getMessage());
+        }
     }
 
     /**
-     * Loads the saved log from the .gitlet folder
+     * Returns all branch-commit pairs in reversed chronological order.
+     * The records are read lazily, one at a time.
      * @return
      */
-    public static Logs loadLogs() {
-        return Utils.readObject(GITLET_LOG, Logs.class);
+    public static Iterable<Commits> getLog() {
+        return ReverseIterator::new;
     }
 
     /**
-     * Saves this log inside the .gitlet folder
-     * -- "Persistence"
+     * Returns the branch-commit pairs from given offset of the log file, in chronological order
+     * (e.g. the records appended since an offset, see MessageIndex)
+     * @param offset    the offset of a record, or the length of the log file
+     * @return
      */
-    public void saveLogs() {
-        Utils.writeObject(GITLET_LOG, this);
+    static Iterable<Commits> getLogFrom(long offset) {
+        return () -> new ForwardIterator(offset);
+    }
+
+    /**
+     * Returns the branch-commit pair of the record at given offset of the log file
+     * -- if there's no such record (or the record is broken) -> return null
+     * @param offset
+     * @return
+     */
+    static Commits readAt(long offset) {
+        try (RandomAccessFile log = new RandomAccessFile(GITLET_LOG, "r")) {
+            checkFormat(log);
+            if (offset < 0 || offset + LENGTH_SIZE > log.length()) {
+                return null;
+            }
+            log.seek(offset);
+            int length = log.readInt();
+            if (length < 0 || offset + LENGTH_SIZE + length > log.length()) {
+                return null;
+            }
+            byte[] record = new byte[LENGTH_SIZE + length];
+            log.seek(offset);
+            log.readFully(record);
+            return decode(record, offset);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read log: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads the records of the log file from an offset to the end
+     */
+    private static class ForwardIterator implements Iterator<Commits> {
+        // the opened log file, buffered
+        private DataInputStream log;
+
+        // the position of the record to be read next
+        private long offset;
+
+        // the record to be returned next
+        private Commits next;
+
+        ForwardIterator(long offset) {
+            try {
+                try (RandomAccessFile log = new RandomAccessFile(GITLET_LOG, "r")) {
+                    checkFormat(log);
+                }
+                FileInputStream file = new FileInputStream(GITLET_LOG);
+                file.getChannel().position(offset);
+                this.log = new DataInputStream(new BufferedInputStream(file));
+                this.offset = offset;
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read log: %s", excp.getMessage());
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Commits next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Commits result = next;
+            advance();
+            return result;
+        }
+
+        /**
+         * Reads the record at this.offset
+         * -- the log file is closed at its end (or at a broken record)
+         */
+        private void advance() {
+            next = null;
+            try {
+                int length = log.readInt();
+                byte[] record = new byte[LENGTH_SIZE + length];
+                ByteBuffer.wrap(record).putInt(length);
+                log.readFully(record, LENGTH_SIZE, length);
+                if (log.readLong() == offset) {
+                    next = decode(record, offset);
+                    offset += record.length + OFFSET_SIZE;
+                }
+            } catch (IOException | RuntimeException excp) {
+                next = null;
+            }
+            if (next == null) {
+                try {
+                    log.close();
+                } catch (IOException excp) {
+                    // ignore; the log is read-only here
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records of the log file from the end to the beginning
+     */
+    private static class ReverseIterator implements Iterator<Commits> {
+        // the opened log file
+        private RandomAccessFile log;
+
+        // the position right after the record to be read next
+        private long end;
+
+        // the record to be returned next
+        private Commits next;
+
+        ReverseIterator() {
+            try {
+                this.log = new RandomAccessFile(GITLET_LOG, "r");
+                this.end = log.length();
+                checkFormat(log);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read log: %s", excp.getMessage());
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Commits next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Commits result = next;
+            advance();
+            return result;
+        }
+
+        /**
+         * Reads the record that ends at this.end
+         * -- the log file is closed when there's no record left (or the record is broken)
+         */
+        private void advance() {
+            next = null;
+            try {
+                if (end >= LENGTH_SIZE + OFFSET_SIZE) {
+                    log.seek(end - OFFSET_SIZE);
+                    long start = log.readLong();
+                    long size = end - OFFSET_SIZE - start;
+                    if (start >= 0 && size >= LENGTH_SIZE) {
+                        byte[] record = new byte[(int) size];
+                        log.seek(start);
+                        log.readFully(record);
+                        next = decode(record, start);
+                        end = start;
+                    }
+                }
+            } catch (IOException excp) {
+                next = null;
+            }
+            if (next == null) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                log.close();
+            } catch (IOException excp) {
+                // ignore; the log is read-only here
+            }
+        }
+    }
+
+    /**
+     * Checks that the log file is not the serialized Logs instance saved by older versions of gitlet
+     * (a record never starts with the magic of a serialized object, its length would be negative)
+     * -- the old log is converted by "migrate" (see Migration), it is never read as records:
+     *    error, instead of a history with wrong or no commits
+     * @param log
+     */
+    private static void checkFormat(RandomAccessFile log) throws IOException {
+        byte[] magic = new byte[Encoding.LEGACY.length];
+        if (log.length() >= magic.length) {
+            log.seek(0);
+            log.readFully(magic);
+            if (Encoding.startsWith(magic, Encoding.LEGACY)) {
+                log.close();
+                throw Utils.error(Repository.OLDER_FORMAT);
+            }
+        }
+    }
+
+    /**
+     * Decodes a record (without its offset field) at given offset
+     * -- returns null if the record is broken
+     * @param record
+     * @param offset
+     * @return
+     */
+    private static Commits decode(byte[] record, long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        int length = in.readInt();
+        if (length != record.length - LENGTH_SIZE) {
+            return null;
+        }
+        byte[] id = new byte[Utils.UID_LENGTH];
+        in.readFully(id);
+        String branch = in.readUTF();
+        Commits commits = new Commits(branch, new String(id, StandardCharsets.US_ASCII));
+        commits.offset = offset;
+        return commits;
     }
 
     /**
      * Represents a branch-commit pair
      */
-    public class Commits implements Serializable {
+    public static class Commits {
         // Branch name of the commit
         private String branch;
 
-        // The target Commit
-        private Commit comm;
+        // sha-1 id of the target Commit
+        private String commitId;
+
+        // the position of the record in the log file (-1: not read from the log)
+        private long offset = -1;
 
         /**
          * Constructor for Commits class
          * @param brch
-         * @param comm
+         * @param commitId
          */
-        public Commits(String brch, Commit comm) {
+        public Commits(String brch, String commitId) {
             this.branch = brch;
-            this.comm = comm;
+            this.commitId = commitId;
         }
 
         /**
-         * Getter for this.comm
+         * Getter for the target Commit
+         * -- the commit is loaded only when it is needed
+         * -- if the commit was removed by "gc" before the log was rewritten -> return null
          * @return
          */
         public Commit getCommit() {
-            return this.comm;
+            if (!ObjectStore.contains(this.commitId)) {
+                return null;
+            }
+            return Commit.loadCommit(this.commitId);
+        }
+
+        /**
+         * Getter for the sha-1 id of the target Commit
+         * @return
+         */
+        public String getCommitId() {
+            return this.commitId;
         }
 
         public String getBranchName() {
             return this.branch;
         }
+
+        /**
+         * Getter for the position of the record in the log file
+         * @return
+         */
+        long getOffset() {
+            return this.offset;
+        }
     }
 }
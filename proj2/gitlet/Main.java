@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
@@ -12,13 +14,51 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        // the command is served by the daemon if it is running (see Daemon)
+        boolean startsDaemon = args.length == 1 && args[0].equals("daemon");
+        if (!startsDaemon && Daemon.forward(args)) {
+            return;
+        }
+        execute(args);
+    }
+
+    /**
+     * Runs a command
+     * -- the changes of the command are saved at the end as a single transaction (see Journal)
+     * -- if the command fails, none of its changes are saved, and its error message is printed (see GitletException)
+     *
+     * @param args
+     */
+    static void execute(String[] args) {
+        try {
+            Journal.recover();
+            run(args);
+            Journal.commit();
+        } catch (GitletException excp) {
+            Journal.abort();
+            if (excp.getMessage() != null) {
+                System.out.println(excp.getMessage());
+            }
+        } catch (RuntimeException excp) {
+            Journal.abort();
+            throw excp;
+        } finally {
+            if (Repository.GITLET_DIR.exists()) {
+                ObjectCache.printStats();
+            }
+        }
+    }
+
+    private static void run(String[] args) {
         // TODO: what if args is empty?
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
 
         String firstArg = args[0];
+        if (!firstArg.equals("init") && !firstArg.equals("migrate")) {
+            Repository.checkRepoVersion();
+        }
         switch (firstArg) {
             case "init":
                 // do not require any arguments except the first arg
@@ -32,9 +72,9 @@ public class Main {
                 // requires the filename
 
                 // e.g. java gitlet.Main add hello.txt
-                Utils.validateNumArgs("add", args, 2);
-                String filename = args[1];
-                Repository.add(filename);
+                //      java gitlet.Main add hello.txt src "*.txt"
+                Utils.validateMinArgs("add", args, 2);
+                Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
 
             case "commit":
@@ -56,19 +96,19 @@ public class Main {
                 break;
 
             case "log":
-                // do not require any arguments except the first arg
+                // takes the options of the entries to be printed only (see LogWriter)
 
                 // e.g. java gitlet.Main log
-                Utils.validateNumArgs("log", args, 1);
-                Repository.log();
+                //      java gitlet.Main log -n 20 --since 2024-01-31 --oneline
+                Repository.log(LogWriter.of(args));
                 break;
 
             case "global-log":
-                // do not require any arguments except the first arg
+                // takes the options of the entries to be printed only (see LogWriter)
 
                 // e.g. java gitlet.Main global-log
-                Utils.validateNumArgs("global-log", args, 1);
-                Repository.global_log();
+                //      java gitlet.Main global-log -n 20 --oneline
+                Repository.global_log(LogWriter.of(args));
                 break;
 
             case "find":
@@ -88,6 +128,26 @@ public class Main {
                 Repository.status();
                 break;
 
+            case "diff":
+                // prints the changes of the files
+
+                // e.g. java gitlet.Main diff
+                //      java gitlet.Main diff --staged
+                //      java gitlet.Main diff [commit id]
+                //      java gitlet.Main diff [commit id] [commit id]
+                if (args.length == 1) {
+                    Repository.diff();
+                } else if (args.length == 2 && (args[1].equals("--staged") || args[1].equals("--cached"))) {
+                    Repository.diffStaged();
+                } else if (args.length == 2) {
+                    Repository.diffCommit(args[1]);
+                } else if (args.length == 3) {
+                    Repository.diffCommits(args[1], args[2]);
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+
             case "checkout":
                 if (args.length == 2) {
                     // java gitlet.Main checkout [branch name]
@@ -100,8 +160,7 @@ public class Main {
                     if (args[1].equals("--") && fname.length() > 0) {
                         Repository.checkoutFile(fname);
                     } else {
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        throw Utils.error("Incorrect operands.");
                     }
                 } else if (args.length == 4) {
                     // java gitlet.Main checkout [commit id] -- [file name]
@@ -111,12 +170,10 @@ public class Main {
                     if (args[2].equals("--") && fname.length() > 0 && commitId.length() > 0) {
                         Repository.checkoutFileCommit(commitId, fname);
                     } else {
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        throw Utils.error("Incorrect operands.");
                     }
                 } else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw Utils.error("Incorrect operands.");
                 }
                 break;
 
@@ -146,14 +203,62 @@ public class Main {
                 Repository.merge(args[1]);
                 break;
 
+            case "config":
+                // prints or sets a setting of the repository
+
+                // e.g. java gitlet.Main config core.compression lz
+                if (args.length == 2) {
+                    Repository.config(args[1]);
+                } else if (args.length == 3) {
+                    Repository.config(args[1], args[2]);
+                } else {
+                    throw Utils.error("Incorrect operands.");
+                }
+                break;
+
+            case "gc":
+                // removes unreachable objects, and moves the others into the pack
+
+                // e.g. java gitlet.Main gc
+                Utils.validateNumArgs("gc", args, 1);
+                Repository.gc();
+                break;
+
+            case "prune":
+                // removes unreachable loose objects
+
+                // e.g. java gitlet.Main prune
+                Utils.validateNumArgs("prune", args, 1);
+                Repository.prune();
+                break;
+
+            case "migrate":
+                // rewrites the repository created by an older version of gitlet
+
+                // e.g. java gitlet.Main migrate
+                Utils.validateNumArgs("migrate", args, 1);
+                Repository.migrate();
+                break;
+
+            case "daemon":
+                // serves the commands from a long-running process
+
+                // e.g. java gitlet.Main daemon
+                if (args.length == 2 && args[1].equals("stop")) {
+                    // forwarded to the daemon if it is running
+                    throw Utils.error("No daemon is running.");
+                }
+                Utils.validateNumArgs("daemon", args, 1);
+                Daemon.serve();
+                break;
+
 //            case "test":
 //                Utils.validateNumArgs("test", args, 3);
 //                Repository.test(args[1], args[2]);
 //                break;
 
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw Utils.error("No command with that name exists.");
         }
     }
 }
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merge
+ *  The three-way merge of the lines of a file which was changed in both branches (diff3).
+ *
+ *  The changes of each branch are the hunks of the diff from the split point (see LineDiff).
+ *  The hunks of both branches are grouped when they overlap or touch in the split point's version:
+ *      - a group with the hunks of one branch only  -> the lines of that branch
+ *      - a group changed the same way in both       -> those lines
+ *      - otherwise, a conflict                      -> both versions, between markers
+ *
+ *          <<<<<<< HEAD
+ *          [the lines of the current branch]
+ *          =======
+ *          [the lines of the given branch]
+ *          >>>>>>>
+ *
+ *  The lines outside every group are the same in all three versions, and are kept as they are.
+ *  A missing file is merged as an empty one, so a file deleted in one branch and changed in the other
+ *  is a conflict with an empty side.
+ *
+ * @author Gaon Choi
+ */
+class Merge {
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The buffer size of the merged file */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Merges the versions of a file into given file
+     *
+     * @param baseId    the blob at the split point (null: no such file)
+     * @param oursId    the blob in the current branch (null: no such file)
+     * @param theirsId  the blob in the given branch (null: no such file)
+     * @param file
+     * @return  whether there was a conflict
+     */
+    static boolean merge(String baseId, String oursId, String theirsId, File file) {
+        LineDiff.Lines lines = new LineDiff.Lines();
+        int[] base = lines.read(baseId);
+        int[] ours = lines.read(oursId);
+        int[] theirs = lines.read(theirsId);
+        List<int[]> oursHunks = LineDiff.diff(base, ours, lines.size());
+        List<int[]> theirsHunks = LineDiff.diff(base, theirs, lines.size());
+
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            return merge(lines, base, ours, theirs, oursHunks, theirsHunks, out);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", file.getPath(), excp.getMessage());
+        }
+    }
+
+    private static boolean merge(LineDiff.Lines lines, int[] base, int[] ours, int[] theirs,
+                                 List<int[]> oursHunks, List<int[]> theirsHunks, OutputStream out)
+            throws IOException {
+        boolean conflict = false;
+        int pos = 0;            // the lines of base before POS are written
+        int o = 0;              // the next hunk of each branch
+        int t = 0;
+        int oursShift = 0;      // the line of ours (theirs) at POS is POS + shift
+        int theirsShift = 0;
+
+        while (o < oursHunks.size() || t < theirsHunks.size()) {
+            // a group of the hunks overlapping or touching each other in base: [start, end)
+            int start = Math.min(o < oursHunks.size() ? oursHunks.get(o)[0] : base.length,
+                    t < theirsHunks.size() ? theirsHunks.get(t)[0] : base.length);
+            int end = start;
+            int oursFrom = o;
+            int theirsFrom = t;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                while (o < oursHunks.size() && oursHunks.get(o)[0] <= end) {
+                    end = Math.max(end, oursHunks.get(o++)[1]);
+                    grown = true;
+                }
+                while (t < theirsHunks.size() && theirsHunks.get(t)[0] <= end) {
+                    end = Math.max(end, theirsHunks.get(t++)[1]);
+                    grown = true;
+                }
+            }
+
+            lines.write(base, pos, start, out);
+            int oursStart = start + oursShift;
+            int theirsStart = start + theirsShift;
+            oursShift += shift(oursHunks, oursFrom, o);
+            theirsShift += shift(theirsHunks, theirsFrom, t);
+            int oursEnd = end + oursShift;
+            int theirsEnd = end + theirsShift;
+
+            if (t == theirsFrom) {
+                lines.write(ours, oursStart, oursEnd, out);
+            } else if (o == oursFrom || same(ours, oursStart, oursEnd, theirs, theirsStart, theirsEnd)) {
+                lines.write(theirs, theirsStart, theirsEnd, out);
+            } else {
+                out.write(OURS);
+                writeSide(lines, ours, oursStart, oursEnd, out);
+                out.write(SEPARATOR);
+                writeSide(lines, theirs, theirsStart, theirsEnd, out);
+                out.write(THEIRS);
+                conflict = true;
+            }
+            pos = end;
+        }
+        lines.write(base, pos, base.length, out);
+        return conflict;
+    }
+
+    /**
+     * Returns the number of lines added (minus the lines removed) by the hunks [from, to)
+     */
+    private static int shift(List<int[]> hunks, int from, int to) {
+        int shift = 0;
+        for (int i = from; i < to; i++) {
+            int[] hunk = hunks.get(i);
+            shift += (hunk[3] - hunk[2]) - (hunk[1] - hunk[0]);
+        }
+        return shift;
+    }
+
+    private static boolean same(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        return Arrays.equals(a, aFrom, aTo, b, bFrom, bTo);
+    }
+
+    /**
+     * Writes the lines of a branch in a conflict, ending with '\n' so that the next marker is on its own line
+     */
+    private static void writeSide(LineDiff.Lines lines, int[] file, int from, int to, OutputStream out)
+            throws IOException {
+        lines.write(file, from, to, out);
+        if (to > from && !lines.endsWithNewline(file[to - 1])) {
+            out.write('\n');
+        }
+    }
+}
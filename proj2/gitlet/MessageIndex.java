@@ -0,0 +1,293 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Repository.GITLET_LOG;
+import static gitlet.Repository.GITLET_MESSAGES;
+
+/**
+ * MessageIndex
+ *  The records of the log by the messages of their commits, so that "find" looks up a message
+ *  instead of loading every commit in the log.
+ *
+ *  File format (.gitlet/messages)
+ *      "MIDX" | version(int) | covered(long) | N(int) | S(int) | last(long) | lastId(long)
+ *      | { hash(long) | offset(long) }*
+ *      - covered: the length of the log file which has been indexed; the records appended after it
+ *                 are indexed by the next "find" (only their commits are loaded)
+ *      - last   : the position of the last record indexed, which ends at covered
+ *      - lastId : the first 64 bits of the id of its commit
+ *      - hash   : the first 64 bits of the sha-1 id of a message
+ *      - offset : the position of the record in the log file (see Logs)
+ *      - the first S entries are sorted by hash (binary search), the others are appended in the order of the log
+ *        -- the whole index is sorted again when more than max(TAIL_MIN, S / 8) entries are appended
+ *
+ *  The index is a cache of the log: it is written directly (not through Journal), and checked against the log
+ *  before it is used. The log is only appended, or rewritten without some of its records ("gc") or with new
+ *  commits ("migrate"), and a commit is recorded once. So if the last record indexed is still at its position,
+ *  the log hasn't changed up to covered; otherwise the index is built again from the whole log.
+ *  Different messages may have the same hash, so the commits found are checked by loading them.
+ *
+ * @author Gaon Choi
+ */
+class MessageIndex {
+    private static final byte[] MAGIC = {'M', 'I', 'D', 'X'};
+    private static final int VERSION = 2;
+
+    /** Size of the header: magic + version + covered + N + S + last + lastId */
+    private static final int HEADER_SIZE = 40;
+
+    /** Size of an entry */
+    private static final int ENTRY_SIZE = 16;
+
+    /** The least number of entries which may be appended without sorting the index again */
+    private static final int TAIL_MIN = 1024;
+
+    /**
+     * Returns the ids of the commits in the log with given message, the latest first
+     *
+     * @param message
+     * @return
+     */
+    static List<String> find(String message) {
+        MappedByteBuffer index = update();
+        long hash = hash(message);
+        int n = index.getInt(16);
+        int sorted = index.getInt(20);
+        List<Long> offsets = new ArrayList<>();
+        int lo = 0;
+        int hi = sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashAt(index, mid) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < sorted && hashAt(index, i) == hash; i++) {
+            offsets.add(offsetAt(index, i));
+        }
+        for (int i = sorted; i < n; i++) {
+            if (hashAt(index, i) == hash) {
+                offsets.add(offsetAt(index, i));
+            }
+        }
+        offsets.sort(Comparator.reverseOrder());
+
+        List<String> ids = new ArrayList<>();
+        for (long offset : offsets) {
+            Logs.Commits entry = Logs.readAt(offset);
+            Commit comm = entry == null ? null : entry.getCommit();
+            if (comm != null && comm.getMessage().equals(message)) {
+                ids.add(entry.getCommitId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Indexes the records appended to the log since the index was updated, and returns the mapped index
+     * -- the index is built from the whole log if it doesn't exist (or doesn't match the log)
+     *
+     * @return
+     */
+    private static MappedByteBuffer update() {
+        long length = GITLET_LOG.length();
+        MappedByteBuffer index = map();
+        if (index != null && !matches(index, length)) {
+            index = null;   // the log has been rewritten
+        }
+        long covered = index == null ? 0 : index.getLong(8);
+        if (index != null && covered == length) {
+            return index;
+        }
+
+        long[] added = new long[64];
+        int k = 0;
+        long last = index == null ? 0 : index.getLong(24);
+        long lastId = index == null ? 0 : index.getLong(32);
+        for (Logs.Commits entry : Logs.getLogFrom(covered)) {
+            if (entry.getOffset() >= length) {
+                break;
+            }
+            last = entry.getOffset();
+            lastId = hash64(entry.getCommitId());
+            Commit comm = entry.getCommit();
+            if (comm != null) {
+                added = k * 2 == added.length ? Arrays.copyOf(added, 2 * added.length) : added;
+                added[2 * k] = hash(comm.getMessage());
+                added[2 * k + 1] = entry.getOffset();
+                k += 1;
+            }
+        }
+
+        // an index in the journal (deleted by the former versions) would be deleted again by every command
+        Journal.forget(GITLET_MESSAGES);
+        long[] header = {length, last, lastId};
+        if (index == null) {
+            write(new long[0], 0, added, k, header);
+        } else {
+            int n = index.getInt(16);
+            int sorted = index.getInt(20);
+            if (n - sorted + k > Math.max(TAIL_MIN, sorted / 8)) {
+                long[] entries = new long[2 * n];
+                for (int i = 0; i < n; i++) {
+                    entries[2 * i] = hashAt(index, i);
+                    entries[2 * i + 1] = offsetAt(index, i);
+                }
+                write(entries, n, added, k, header);
+            } else {
+                append(n, added, k, header);
+            }
+        }
+        return map();
+    }
+
+    /**
+     * Returns whether given index is an index of the log file of given length
+     * -- the last record indexed has to be at its position, with the same commit
+     *
+     * @param index
+     * @param length    the length of the log file
+     * @return
+     */
+    private static boolean matches(MappedByteBuffer index, long length) {
+        long covered = index.getLong(8);
+        if (covered > length) {
+            return false;
+        }
+        if (covered == 0) {
+            return true;
+        }
+        Logs.Commits entry = Logs.readAt(index.getLong(24));
+        return entry != null && hash64(entry.getCommitId()) == index.getLong(32);
+    }
+
+    /**
+     * Writes the index of given entries, sorted by hash
+     *
+     * @param entries   the entries of the old index: { hash, offset }*
+     * @param n         the number of the old entries
+     * @param added     the entries of the records appended to the log: { hash, offset }*
+     * @param k         the number of the added entries
+     * @param header    covered, last, lastId
+     */
+    private static void write(long[] entries, int n, long[] added, int k, long[] header) {
+        long[] all = Arrays.copyOf(entries, 2 * (n + k));
+        System.arraycopy(added, 0, all, 2 * n, 2 * k);
+        Integer[] order = new Integer[n + k];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> all[2 * i]).thenComparingLong(i -> all[2 * i + 1]));
+
+        File tmp = Utils.join(GITLET_DIR, "messages.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(header[0]);
+            out.writeInt(order.length);
+            out.writeInt(order.length);
+            out.writeLong(header[1]);
+            out.writeLong(header[2]);
+            for (int i : order) {
+                out.writeLong(all[2 * i]);
+                out.writeLong(all[2 * i + 1]);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw Utils.error("Cannot write message index: %s", excp.getMessage());
+        }
+        if (!tmp.renameTo(GITLET_MESSAGES)) {
+            throw Utils.error("Cannot write message index.");
+        }
+    }
+
+    /**
+     * Appends given entries to the index (they are not sorted)
+     * -- the entries are written before the header counts them
+     *
+     * @param n         the number of entries in the index
+     * @param added     { hash, offset }*
+     * @param k         the number of the added entries
+     * @param header    covered, last, lastId
+     */
+    private static void append(int n, long[] added, int k, long[] header) {
+        try (RandomAccessFile file = new RandomAccessFile(GITLET_MESSAGES, "rw")) {
+            ByteBuffer entries = ByteBuffer.allocate(k * ENTRY_SIZE);
+            entries.asLongBuffer().put(added, 0, 2 * k);
+            file.seek(HEADER_SIZE + (long) n * ENTRY_SIZE);
+            file.write(entries.array());
+            file.seek(8);
+            file.writeLong(header[0]);
+            file.writeInt(n + k);
+            file.seek(24);
+            file.writeLong(header[1]);
+            file.writeLong(header[2]);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write message index: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Maps the index file
+     * -- if there's no index (or it was written by another version) -> return null
+     *
+     * @return
+     */
+    private static MappedByteBuffer map() {
+        if (!GITLET_MESSAGES.isFile() || GITLET_MESSAGES.length() < HEADER_SIZE) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(GITLET_MESSAGES.toPath())) {
+            MappedByteBuffer index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            byte[] magic = new byte[MAGIC.length];
+            index.get(0, magic);
+            int n = index.getInt(16);
+            if (!Arrays.equals(magic, MAGIC) || index.getInt(4) != VERSION
+                    || HEADER_SIZE + (long) n * ENTRY_SIZE > ch.size()) {
+                return null;
+            }
+            return index;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read message index: %s", excp.getMessage());
+        }
+    }
+
+    private static long hashAt(MappedByteBuffer index, int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+    }
+
+    private static long offsetAt(MappedByteBuffer index, int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Returns the hash of a message: the first 64 bits of its sha-1 id
+     *
+     * @param message
+     * @return
+     */
+    private static long hash(String message) {
+        return hash64(Utils.sha1(message));
+    }
+
+    /** Returns the first 64 bits of a sha-1 id */
+    private static long hash64(String id) {
+        return Long.parseUnsignedLong(id.substring(0, 16), 16);
+    }
+}
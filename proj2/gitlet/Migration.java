@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Repository.GITLET_HEADER;
+import static gitlet.Repository.GITLET_HEADS;
+import static gitlet.Repository.GITLET_LOG;
+import static gitlet.Repository.GITLET_STAGE;
+
+/**
+ * Migration
+ *  Rewrites a repository whose blob ids were generated with the file path,
+ *  so that every blob id depends only on the file contents.
+ *
+ *  Since a commit id depends on the blob ids of its files and the ids of its parents,
+ *  every commit is rewritten from the oldest one, and then the log, the branches
+ *  and the staging area are updated with the new ids.
+ *
+ *  The log, the branches, HEAD and the staging area saved by older versions of gitlet (serialized
+ *  Logs, Branch, String and StageArea instances) are read here, and written in the current formats.
+ *
+ * @author Gaon Choi
+ */
+class Migration {
+    /** old blob id <--> new blob id */
+    private static final HashMap<String, String> BLOB_IDS = new HashMap<>();
+
+    /** old commit id <--> new commit id */
+    private static final HashMap<String, String> COMMIT_IDS = new HashMap<>();
+
+    /**
+     * Rewrites every blob, commit, log, branch and the staging area
+     * (*) git migrate
+     */
+    static void migrate() {
+        // the log is in reversed chronological order -> parents come first after reversing
+        List<String> branches = new ArrayList<>();
+        List<String> commitIds = new ArrayList<>();
+        readLog(branches, commitIds);
+        Collections.reverse(branches);
+        Collections.reverse(commitIds);
+
+        List<Commit> rewritten = new ArrayList<>();
+        for (String commitId : commitIds) {
+            rewritten.add(migrateCommit(commitId));
+        }
+
+        // log (the message index is built again from the new log)
+        Journal.write(GITLET_LOG, new byte[0]);
+        for (int i = 0; i < branches.size(); i++) {
+            Logs.appendItem(branches.get(i), rewritten.get(i));
+        }
+
+        // branches
+        for (String name : Journal.list(GITLET_HEADS)) {
+            new Branch(name, migrateCommit(readBranch(name))).saveBranch();
+        }
+
+        // HEAD ("ref: refs/heads/[name]", serialized as a String by older versions)
+        byte[] header = Journal.read(GITLET_HEADER);
+        if (header != null && Encoding.startsWith(header, Encoding.LEGACY)) {
+            String header_ = Utils.deserialize(header, String.class).trim();
+            Journal.write(GITLET_HEADER, (header_ + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        // staging area (the stat cache is dropped, since it has the old blob ids)
+        StageArea oldSA = readStage();
+        StageArea newSA = StageArea.of(migrateFiles(oldSA.getTracked()), migrateFiles(oldSA.getAdded()),
+                oldSA.getRemoved(), null);
+        newSA.saveStage();
+
+        // the old objects are not referred to by anything now
+        deleteOld(BLOB_IDS);
+        deleteOld(COMMIT_IDS);
+    }
+
+    /**
+     * Reads the log into the branch names and the commit ids of its items, in reversed chronological order
+     * -- either in records (see Logs) or the Logs instance serialized by older versions
+     *
+     * @param branches
+     * @param commitIds
+     */
+    private static void readLog(List<String> branches, List<String> commitIds) {
+        byte[] data = Journal.read(GITLET_LOG);
+        if (data != null && Encoding.startsWith(data, Encoding.LEGACY)) {
+            // the newest item comes first in the old log too
+            for (LegacyLogs.Commits item : readLegacy(data, LegacyLogs.class).log) {
+                branches.add(item.branch);
+                commitIds.add(item.comm.getId());
+            }
+            return;
+        }
+        for (Logs.Commits item : Logs.getLog()) {
+            branches.add(item.getBranchName());
+            commitIds.add(item.getCommitId());
+        }
+    }
+
+    /**
+     * Returns the (old) id of the commit to which the branch with given name points
+     * -- either a ref file (see Branch) or the Branch instance serialized by older versions
+     *
+     * @param name
+     * @return
+     */
+    private static String readBranch(String name) {
+        byte[] data = Journal.read(Utils.join(GITLET_HEADS, name));
+        if (data != null && Encoding.startsWith(data, Encoding.LEGACY)) {
+            return readLegacy(data, LegacyBranch.class).pointer.getId();
+        }
+        return Branch.loadBranch(name).getPointerId();
+    }
+
+    /**
+     * Returns the staging area
+     * -- the StageArea serialized by the oldest versions (with another serialVersionUID) is read here,
+     *    any other one by StageArea
+     *
+     * @return
+     */
+    private static StageArea readStage() {
+        byte[] data = Journal.read(GITLET_STAGE);
+        if (data != null && Encoding.startsWith(data, Encoding.LEGACY)) {
+            Serializable old = readLegacy(data, Serializable.class);
+            if (old instanceof LegacyStageArea) {
+                LegacyStageArea sa = (LegacyStageArea) old;
+                return StageArea.of(sa.tracked, sa.added, sa.removed, null);
+            }
+        }
+        return StageArea.stageArea();
+    }
+
+    /**
+     * Deletes the loose objects with old ids which have been rewritten
+     * (e.g. the initial commit keeps its id, so it must not be deleted)
+     * -- deleted only after the new branches are saved (see Journal)
+     *
+     * @param ids   old id <--> new id
+     */
+    private static void deleteOld(HashMap<String, String> ids) {
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                Journal.delete(ObjectStore.looseFile(entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Rewrites the commit with given (old) id, and returns the new commit
+     * -- each commit is rewritten only once
+     *
+     * @param oldId
+     * @return
+     */
+    private static Commit migrateCommit(String oldId) {
+        String newId = COMMIT_IDS.get(oldId);
+        if (newId != null) {
+            return Commit.loadCommit(newId);
+        }
+        Commit old = Commit.loadCommit(oldId);
+        ArrayList<String> parentIds = new ArrayList<>();
+        for (String parentId : old.getParentIds()) {
+            parentIds.add(migrateCommit(parentId).getId());
+        }
+        Commit comm = new Commit(parentIds, migrateFiles(old.getfmap()),
+                old.getDateRaw(), old.getMessage());
+        comm.saveCommit();
+        COMMIT_IDS.put(oldId, comm.getId());
+        return comm;
+    }
+
+    /**
+     * Returns a copy of given file list with the new blob ids
+     * file path <--> blob id
+     *
+     * @param fmap
+     * @return
+     */
+    private static HashMap<String, String> migrateFiles(HashMap<String, String> fmap) {
+        HashMap<String, String> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : fmap.entrySet()) {
+            result.put(entry.getKey(), migrateBlob(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Saves the contents of the blob with given (old) id as a new blob,
+     * and returns the new blob id
+     *
+     * @param oldId
+     * @return
+     */
+    private static String migrateBlob(String oldId) {
+        String newId = BLOB_IDS.get(oldId);
+        if (newId == null) {
+            Blob blob = new Blob(Blob.loadBlob(oldId).getContentRaw());
+            blob.saveBlob();
+            newId = blob.getId();
+            BLOB_IDS.put(oldId, newId);
+        }
+        return newId;
+    }
+
+    /**
+     * Returns the instance of an old class (Branch, Logs or StageArea) serialized in given data,
+     * as an instance of its mirror class below
+     *
+     * @param data
+     * @param expectedClass
+     * @return
+     */
+    private static <T extends Serializable> T readLegacy(byte[] data, Class<T> expectedClass) {
+        try (ObjectInputStream in = new LegacyInputStream(new ByteArrayInputStream(data))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw Utils.error("Cannot read the old repository: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * The input stream which reads the old classes as their mirror classes
+     * -- the old Branch, Logs and StageArea are not the classes with the same names now, so the class of
+     *    each of them in the stream is replaced by its mirror (same fields), and the commits
+     *    in them are read as Commit (whose serialVersionUID has been kept)
+     */
+    private static class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            switch (desc.getName()) {
+                case "gitlet.Branch":
+                    return ObjectStreamClass.lookup(LegacyBranch.class);
+                case "gitlet.Logs":
+                    return ObjectStreamClass.lookup(LegacyLogs.class);
+                case "gitlet.Logs$Commits":
+                    return ObjectStreamClass.lookup(LegacyLogs.Commits.class);
+                case "gitlet.StageArea":
+                    if (desc.getSerialVersionUID() == LegacyStageArea.serialVersionUID) {
+                        return ObjectStreamClass.lookup(LegacyStageArea.class);
+                    }
+                    return desc;
+                default:
+                    return desc;
+            }
+        }
+    }
+
+    /** The Branch saved by older versions of gitlet */
+    private static class LegacyBranch implements Serializable {
+        private static final long serialVersionUID = -727888134829856922L;
+
+        // branch name
+        private String name;
+
+        // the commit to which the branch points
+        private Commit pointer;
+    }
+
+    /** The StageArea saved by the oldest versions of gitlet (before the stat cache) */
+    private static class LegacyStageArea implements Serializable {
+        private static final long serialVersionUID = -7240302162393152974L;
+
+        // staged files
+        private HashMap<String, String> added;
+
+        // removed files
+        private ArrayList<String> removed;
+
+        // tracked files
+        private HashMap<String, String> tracked;
+    }
+
+    /** The Logs saved by older versions of gitlet (the newest item first) */
+    private static class LegacyLogs implements Serializable {
+        private static final long serialVersionUID = 961937191509786724L;
+
+        private ArrayList<Commits> log;
+
+        /** not static, as the old one (so that it has the same fields) */
+        private class Commits implements Serializable {
+            private static final long serialVersionUID = 8173236001668925040L;
+
+            // Branch name of the commit
+            private String branch;
+
+            // The target Commit
+            private Commit comm;
+        }
+    }
+}
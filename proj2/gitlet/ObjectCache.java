@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ObjectCache
+ *  The objects (commits and small blobs) already read by this command, by their sha-1 id.
+ *  Objects are immutable, so the same instance can be shared by every caller.
+ *
+ *  The cache is bounded by the approximate size of the objects in bytes ("core.cacheSize", default 64MB),
+ *  and the least recently used objects are evicted first.
+ *  An object larger than 1/8 of the cache is never cached.
+ *
+ *  With "core.cacheStats" set to true, the hits and misses are printed when the command ends.
+ *  The cache is shared by the threads which write the files of a checkout, so its methods are synchronized.
+ *
+ * @author Gaon Choi
+ */
+class ObjectCache {
+    /** An object with its approximate size */
+    private static class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** id <--> cached object, in the order of access (the least recently used first) */
+    private static final LinkedHashMap<String, Entry> ENTRIES = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** The maximum size of the cached objects in bytes (loaded at the first call) */
+    private static long capacity = -1;
+
+    /** The size of the cached objects in bytes */
+    private static long size;
+
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    /**
+     * Returns the cached object with given id
+     * -- if the object is not cached (or is not an instance of TYPE) -> return null
+     *
+     * @param id
+     * @param type
+     * @return
+     */
+    static synchronized <T> T get(String id, Class<T> type) {
+        Entry entry = ENTRIES.get(id);
+        if (entry == null || !type.isInstance(entry.value)) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Checks whether the object with given id is cached (the counters are not changed)
+     *
+     * @param id
+     * @return
+     */
+    static synchronized boolean contains(String id) {
+        return ENTRIES.containsKey(id);
+    }
+
+    /**
+     * Caches the object with given id, and evicts the least recently used objects
+     * until the cache fits in its capacity
+     *
+     * @param id
+     * @param value
+     * @param bytes     approximate size of the object
+     */
+    static synchronized void put(String id, Object value, long bytes) {
+        if (bytes > capacity() / 8) {
+            return;
+        }
+        Entry old = ENTRIES.put(id, new Entry(value, bytes));
+        if (old != null) {
+            size -= old.size;
+        }
+        size += bytes;
+        Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().getValue().size;
+            it.remove();
+            evictions += 1;
+        }
+    }
+
+    /**
+     * Prints the hits and misses of the cache, if "core.cacheStats" is true
+     * -- called when a command ends (the counters are not reset, so a daemon prints the totals)
+     */
+    static synchronized void printStats() {
+        if (Boolean.parseBoolean(Config.get("core.cacheStats", "false"))) {
+            System.err.printf("object cache: %d hits, %d misses, %d evictions, %d objects (%d / %d bytes)%n",
+                    hits, misses, evictions, ENTRIES.size(), size, capacity());
+        }
+    }
+
+    /**
+     * Reloads the capacity from the settings (the objects are kept, since they never change)
+     */
+    static synchronized void reset() {
+        capacity = -1;
+    }
+
+    private static synchronized long capacity() {
+        if (capacity < 0) {
+            capacity = Config.getLong("core.cacheSize", 64L << 20);
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,1300 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Repository.GITLET_OBJECTS;
+
+/**
+ * ObjectStore
+ *  Every blob and commit is stored here by its sha-1 id.
+ *
+ *  There are two kinds of storage inside .gitlet/objects
+ *      1) loose objects
+ *          - one file per object, .gitlet/objects/xx/yyyy...
+ *          - newly-created objects are always written as loose objects
+ *      2) pack
+ *          - .gitlet/objects/pack/objects.pack : append-only file of objects
+ *          - .gitlet/objects/pack/objects.idx  : sorted index of the pack
+ *          - "gitlet gc" rewrites the pack with the loose objects, leaving out the unreachable ones
+ *            (see GarbageCollector and repack)
+ *          - many new objects saved at once (e.g. "gitlet add .") are appended to the pack directly,
+ *            and the new index is saved with the other updates of the command (see PackWriter and Journal)
+ *          - .gitlet/objects/pack/objects.lock : locked while the pack is appended to or rewritten,
+ *            so that the commands of two processes never interleave their objects or indexes
+ *
+ *  Pack file format
+ *      "PACK" | version(int) | { id(20 bytes) | length | data(length bytes) }*
+ *      - length: int, or -1 followed by a long for the objects of 2GB or larger
+ *
+ *  Index file format
+ *      "PIDX" | version(int) | fanout(256 ints) | ids(N * 20 bytes, sorted)
+ *          | offsets(N longs) | lengths(N longs; N ints in version 1) | times(N longs; since version 3)
+ *      fanout[b] = the number of ids whose first byte is less than or equal to b,
+ *      so the ids starting with byte b are ids[fanout[b - 1] .. fanout[b]).
+ *      times: when each object was saved (milliseconds, the modified time of a loose object),
+ *      so an unreachable object is kept for a grace period even after it is packed (see GarbageCollector).
+ *
+ *  Every object starts with the id of its codec (1 byte) followed by the compressed data (see Codec).
+ *  Objects saved by older versions of gitlet are serialized Java objects without the codec id.
+ *
+ *  Reading from the pack is a binary search on the memory-mapped index
+ *  and one positioned read on the pack, instead of opening a file per object.
+ *  Large objects can be read and written as streams, so they never have to fit in memory.
+ *
+ * @author Gaon Choi
+ */
+class ObjectStore {
+    /** Directory - the pack and its index are saved in this folder. */
+    static final File GITLET_PACK = Utils.join(GITLET_OBJECTS, "pack");
+
+    /** File - the pack of objects */
+    static final File PACK_FILE = Utils.join(GITLET_PACK, "objects.pack");
+
+    /** File - sorted index of the pack */
+    static final File INDEX_FILE = Utils.join(GITLET_PACK, "objects.idx");
+
+    /** Version of pack format */
+    private static final int VERSION = 1;
+
+    /** Version of index format */
+    private static final int INDEX_VERSION = 3;
+
+    /** Files - the new pack and its index written by repack, before they replace the old ones */
+    private static final File NEW_PACK_FILE = Utils.join(GITLET_PACK, "objects.pack.new");
+    private static final File NEW_INDEX_FILE = Utils.join(GITLET_PACK, "objects.idx.new");
+
+    /**
+     * File - locked while the pack is appended to or rewritten (see lockPack)
+     * -- not the pack itself, which is replaced by repack
+     */
+    private static final File LOCK_FILE = Utils.join(GITLET_PACK, "objects.lock");
+
+    /** The locked LOCK_FILE, while this command holds the lock */
+    private static RandomAccessFile lock;
+
+    /** Whether a repack stopped in the middle has been checked for since the pack was closed */
+    private static boolean recovered;
+
+    /** Length of the raw sha-1 id */
+    static final int RAW_LENGTH = 20;
+
+    /** Hexadecimal digits of the sha-1 ids */
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** The shortest prefix of an id which can be resolved (see findPrefix) */
+    static final int MIN_PREFIX = 4;
+
+    /** Size of the header of pack/index file: magic + version */
+    private static final int HEADER_SIZE = 8;
+
+    /** Size of the fan-out table */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /**
+     * The opened pack file (lazily opened)
+     * -- volatile, since the pack is read by parallel streams (e.g. StageArea.blobIds, Blob.saveFiles)
+     */
+    private static volatile RandomAccessFile pack;
+
+    /**
+     * The memory-mapped index (lazily mapped)
+     * -- the mapping, the number of objects and the version are published together (see PackIndex),
+     *    so that a thread never reads a new mapping with the count of the old one
+     */
+    private static volatile PackIndex index;
+
+    /**
+     * Returns the loose object file for given sha-1 id
+     * e.g. 563d51a6... -> .gitlet/objects/56/3d51a6...
+     *
+     * @param id
+     * @return
+     */
+    static File looseFile(String id) {
+        return Utils.join(GITLET_OBJECTS, id.substring(0, 2), id.substring(2));
+    }
+
+    /**
+     * Checks whether the object with given id is stored (either loose or packed)
+     *
+     * @param id
+     * @return
+     */
+    static boolean contains(String id) {
+        return looseFile(id).exists() || find(openIndex(), id) >= 0;
+    }
+
+    /**
+     * Returns the ids of the objects which start with given prefix (sorted, either loose or packed)
+     *      - pack : binary search for the first id in the range of the fan-out table,
+     *               and then the following ids while they start with the prefix
+     *      - loose: the files in the folder of the first two digits
+     * -- the prefix must be MIN_PREFIX or more hexadecimal digits, or no id is returned.
+     *
+     * @param prefix
+     * @return
+     */
+    static List<String> findPrefix(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        if (prefix.length() < MIN_PREFIX || prefix.length() > 2 * RAW_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
+            return new ArrayList<>();
+        }
+
+        List<String> files = Utils.plainFilenamesIn(Utils.join(GITLET_OBJECTS, prefix.substring(0, 2)));
+        if (files != null) {
+            for (String file : files) {
+                if (file.startsWith(prefix.substring(2)) && file.length() == 2 * RAW_LENGTH - 2) {
+                    result.add(prefix.substring(0, 2) + file);
+                }
+            }
+        }
+
+        PackIndex idx = openIndex();
+        if (idx != null) {
+            byte[] low = toRaw((prefix + "0".repeat(2 * RAW_LENGTH)).substring(0, 2 * RAW_LENGTH));
+            int first = low[0] & 0xff;
+            int lo = first == 0 ? 0 : idx.fanoutAt(first - 1);
+            int hi = idx.fanoutAt(first);
+            byte[] probe = new byte[RAW_LENGTH];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                idx.buffer.get(idx.idPosition(mid), probe);
+                if (Arrays.compareUnsigned(probe, low) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int pos = lo; pos < idx.count; pos++) {
+                String id = toHex(idx.idAt(pos));
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Saves the given bytes as a loose object with given id.
+     * -- objects are immutable, so an existing object is never rewritten.
+     *
+     * @param id
+     * @param data
+     */
+    static void write(String id, byte[] data) {
+        if (contains(id)) {
+            return;
+        }
+        File tmp = newTempFile();
+        Utils.writeContents(tmp, data);
+        install(tmp, id);
+    }
+
+    /**
+     * Returns a new temporary file inside .gitlet/objects,
+     * to which an object can be streamed before its id is known.
+     * (see install)
+     *
+     * @return
+     */
+    static File newTempFile() {
+        try {
+            return File.createTempFile("tmp_", null, GITLET_OBJECTS);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot create object: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Saves the temporary file as a loose object with given id
+     * -- if the object already exists, the temporary file is just deleted.
+     * -- the object is synced at the end of the command, before the metadata which refers to it (see Journal)
+     *
+     * @param tmp
+     * @param id
+     */
+    static void install(File tmp, String id) {
+        if (contains(id)) {
+            tmp.delete();
+            return;
+        }
+        File file = looseFile(id);
+        // the folder of the object is created only when it is missing (one system call less per object)
+        // -- another thread saving in parallel may create it first, so the rename is tried again anyway
+        if (!tmp.renameTo(file)) {
+            file.getParentFile().mkdir();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw Utils.error("Cannot save object %s", id);
+            }
+        }
+        Journal.created(file);
+    }
+
+    /**
+     * Returns a stream to which an object is written with given codec
+     * -- the codec id is written first
+     *
+     * @param file
+     * @param codec
+     * @return
+     */
+    static OutputStream newObjectStream(File file, Codec codec) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), Blob.BUFFER_SIZE);
+        out.write(codec.id);
+        return codec.compress(out);
+    }
+
+    /**
+     * Saves the given object as a loose object with given id (compressed with the default codec).
+     *
+     * @param id
+     * @param obj
+     */
+    static void writeObject(String id, Serializable obj) {
+        writeBytes(id, Utils.serialize(obj));
+    }
+
+    /**
+     * Saves the given encoded object as a loose object with given id (compressed with the default codec).
+     *
+     * @param id
+     * @param data
+     */
+    static void writeBytes(String id, byte[] data) {
+        if (contains(id)) {
+            return;
+        }
+        File tmp = newTempFile();
+        try (OutputStream out = newObjectStream(tmp, Codec.defaultCodec())) {
+            out.write(data);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw Utils.error("Cannot save object %s: %s", id, excp.getMessage());
+        }
+        install(tmp, id);
+    }
+
+    /**
+     * Returns the codec of the object with given id
+     * -- if the object has no codec id (saved by older versions) -> return null
+     *
+     * @param id
+     * @return
+     */
+    static Codec codecOf(String id) {
+        return Codec.byId(header(id));
+    }
+
+    /**
+     * Returns the first byte of the object with given id
+     * (the codec id, or the type of the object which is not compressed by a codec)
+     *
+     * @param id
+     * @return
+     */
+    static int header(String id) {
+        try (InputStream in = open(id)) {
+            if (in == null) {
+                throw new IllegalArgumentException("no object " + id);
+            }
+            return in.read();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns a stream of the decompressed contents of the object with given id
+     * -- if the object has no codec id (saved by older versions) -> return null
+     *
+     * @param id
+     * @return
+     */
+    static InputStream openDecoded(String id) {
+        InputStream in = open(id);
+        if (in == null) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        try {
+            Codec codec = Codec.byId(in.read());
+            if (codec == null) {
+                in.close();
+                return null;
+            }
+            return codec.decompress(new BufferedInputStream(in, Blob.BUFFER_SIZE));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the contents of the object with given id
+     * -- if no object found -> return null
+     *
+     * @param id
+     * @return
+     */
+    static byte[] read(String id) {
+        File file = looseFile(id);
+        if (file.exists()) {
+            return Utils.readContents(file);
+        }
+        PackIndex idx = openIndex();
+        int pos = find(idx, id);
+        if (pos < 0) {
+            return null;
+        }
+        return readPacked(idx.offsetAt(pos), idx.lengthAt(pos));
+    }
+
+    /**
+     * Returns a stream of the contents of the object with given id
+     * -- if no object found -> return null
+     *
+     * @param id
+     * @return
+     */
+    static InputStream open(String id) {
+        File file = looseFile(id);
+        try {
+            if (file.exists()) {
+                return new FileInputStream(file);
+            }
+            PackIndex idx = openIndex();
+            int pos = find(idx, id);
+            if (pos < 0) {
+                return null;
+            }
+            return new PackInputStream(packChannel(), idx.offsetAt(pos), idx.lengthAt(pos));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Transfers the contents of the object with given id, except its first SKIP bytes,
+     * directly to TARGET with FileChannel.transferTo (no copy through the heap)
+     *
+     * @param id
+     * @param skip
+     * @param target
+     */
+    static void transferTo(String id, long skip, WritableByteChannel target) {
+        File file = looseFile(id);
+        try {
+            if (file.exists()) {
+                try (FileChannel ch = FileChannel.open(file.toPath())) {
+                    transfer(ch, skip, ch.size() - skip, target);
+                }
+                return;
+            }
+            PackIndex idx = openIndex();
+            int pos = find(idx, id);
+            if (pos < 0) {
+                throw new IllegalArgumentException("no object " + id);
+            }
+            transfer(packChannel(), idx.offsetAt(pos) + skip, idx.lengthAt(pos) - skip, target);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Transfers COUNT bytes at POSITION of SOURCE to TARGET
+     * -- transferTo may transfer fewer bytes than requested, so repeat it
+     */
+    private static void transfer(FileChannel source, long position, long count,
+                                 WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long n = source.transferTo(position, count, target);
+            if (n <= 0) {
+                throw new IOException("unexpected end of object");
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Returns the object of type T with given id, casting it to EXPECTEDCLASS.
+     * Throws IllegalArgumentException if there's no such object.
+     *
+     * @param id
+     * @param expectedClass
+     * @return
+     */
+    static <T extends Serializable> T readObject(String id, Class<T> expectedClass) {
+        return Utils.deserialize(readBytes(id), expectedClass);
+    }
+
+    /**
+     * Returns the decompressed contents of the object with given id
+     * (the contents of an object saved by older versions without the codec id are returned as they are)
+     * Throws IllegalArgumentException if there's no such object.
+     *
+     * @param id
+     * @return
+     */
+    static byte[] readBytes(String id) {
+        byte[] data = read(id);
+        if (data == null) {
+            throw new IllegalArgumentException("no object " + id);
+        }
+        Codec codec = Codec.byId(data[0] & 0xff);
+        if (codec == null) {
+            // serialized by older versions (no codec id)
+            return data;
+        }
+        try (InputStream in = codec.decompress(
+                new ByteArrayInputStream(data, 1, data.length - 1))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * Sorts the given object ids in the order they are laid out on disk:
+     * packed objects by their offset in the pack, and then the loose objects.
+     * Reading objects in this order makes the pack read sequentially.
+     *
+     * @param ids
+     * @return
+     */
+    static List<String> diskOrder(Collection<String> ids) {
+        List<String> sorted = new ArrayList<>(ids);
+        PackIndex idx = openIndex();
+        if (idx != null) {
+            sorted.sort(Comparator.comparingLong(id -> packOffset(idx, id)));
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the offset of given object in the pack
+     * -- loose objects come after every packed object
+     *
+     * @param idx
+     * @param id
+     * @return
+     */
+    private static long packOffset(PackIndex idx, String id) {
+        int pos = find(idx, id);
+        return pos < 0 ? Long.MAX_VALUE : idx.offsetAt(pos);
+    }
+
+    /**
+     * The objects saved when a snapshot is taken, each with a position:
+     * the packed objects at their positions in the index, followed by the loose objects sorted by id
+     * -- so a set of objects is a bitmap of positions (see GarbageCollector)
+     */
+    static class Snapshot {
+        /** The index of the packed objects (null: no pack) */
+        private final PackIndex packIndex;
+
+        /** The number of packed objects */
+        private final int packed;
+
+        /** The loose objects, sorted by id */
+        private final String[] looseIds;
+        private final File[] looseFiles;
+
+        Snapshot() {
+            lockPack();     // no object is appended to the pack until the repack is done
+            packIndex = openIndex();
+            packed = packIndex != null ? packIndex.count : 0;
+            List<File> files = looseFiles();
+            looseIds = new String[files.size()];
+            looseFiles = files.toArray(new File[0]);
+            for (int i = 0; i < looseIds.length; i++) {
+                looseIds[i] = looseFiles[i].getParentFile().getName() + looseFiles[i].getName();
+            }
+        }
+
+        /**
+         * Returns the number of objects
+         *
+         * @return
+         */
+        int size() {
+            return packed + looseIds.length;
+        }
+
+        /**
+         * Returns the position of the object with given id
+         * -- if the object was not saved when the snapshot was taken -> return -1
+         *
+         * @param id
+         * @return
+         */
+        int position(String id) {
+            int pos = find(packIndex, id);
+            if (pos >= 0 && pos < packed) {
+                return pos;
+            }
+            pos = Arrays.binarySearch(looseIds, id);
+            return pos >= 0 ? packed + pos : -1;
+        }
+
+        /**
+         * Returns when the object at given position was saved (milliseconds)
+         *
+         * @param pos
+         * @return
+         */
+        long time(int pos) {
+            return pos < packed ? packIndex.timeAt(pos) : looseFiles[pos - packed].lastModified();
+        }
+
+        /**
+         * Returns the number of packed objects (the loose objects follow them)
+         *
+         * @return
+         */
+        int packed() {
+            return packed;
+        }
+
+        /**
+         * Returns the id of the object at given position
+         *
+         * @param pos
+         * @return
+         */
+        String id(int pos) {
+            return pos < packed ? toHex(packIndex.idAt(pos)) : looseIds[pos - packed];
+        }
+
+        /**
+         * Checks whether the object at given position is a loose copy of a packed object
+         *
+         * @param pos
+         * @return
+         */
+        boolean duplicate(int pos) {
+            return pos >= packed && position(looseIds[pos - packed]) != pos;
+        }
+
+        private boolean kept(Predicate keep, int pos) {
+            return keep.test(pos) && !duplicate(pos);
+        }
+
+        /**
+         * Returns the size of the object at given position on the disk
+         *
+         * @param pos
+         * @return
+         */
+        long length(int pos) {
+            return pos < packed ? packIndex.lengthAt(pos) : looseFiles[pos - packed].length();
+        }
+    }
+
+    /**
+     * Rewrites the pack with the objects to be kept, and deletes every loose object
+     *  1) writes the kept objects (packed and loose) into a new pack and its index, and syncs them
+     *  2) renames the new pack over the old one, and then the new index over the old one
+     *     -- the rename of the pack is the point of no return: if the command is killed before it,
+     *        the new files are deleted, and if after it, the new index is renamed (see recoverRepack)
+     *  3) deletes the loose objects, and the temporary files older than given time
+     *
+     * @param snapshot
+     * @param keep      whether the object at each position is kept (see Snapshot)
+     * @param expiry    the temporary files saved before this time are deleted (milliseconds)
+     */
+    static void repack(Snapshot snapshot, Predicate keep, long expiry) {
+        GITLET_PACK.mkdir();
+        int n = 0;
+        for (int pos = 0; pos < snapshot.size(); pos++) {
+            n += snapshot.kept(keep, pos) ? 1 : 0;
+        }
+        byte[][] ids = new byte[n][];
+        long[] offsets = new long[n];
+        long[] lengths = new long[n];
+        long[] times = new long[n];
+        int i = 0;
+        try (RandomAccessFile out = new RandomAccessFile(NEW_PACK_FILE, "rw")) {
+            out.setLength(0);
+            out.writeBytes("PACK");
+            out.writeInt(VERSION);
+            FileChannel target = out.getChannel();
+            for (int pos = 0; pos < snapshot.size(); pos++) {
+                if (!snapshot.kept(keep, pos)) {
+                    continue;
+                }
+                boolean packed = pos < snapshot.packed;
+                ids[i] = packed ? snapshot.packIndex.idAt(pos) : toRaw(snapshot.looseIds[pos - snapshot.packed]);
+                lengths[i] = snapshot.length(pos);
+                times[i] = snapshot.time(pos);
+                out.write(ids[i]);
+                if (lengths[i] > Integer.MAX_VALUE) {
+                    out.writeInt(-1);
+                    out.writeLong(lengths[i]);
+                } else {
+                    out.writeInt((int) lengths[i]);
+                }
+                offsets[i] = out.getFilePointer();
+                if (packed) {
+                    transfer(packChannel(), snapshot.packIndex.offsetAt(pos), lengths[i], target);
+                } else {
+                    try (FileChannel in = FileChannel.open(snapshot.looseFiles[pos - snapshot.packed].toPath())) {
+                        transfer(in, 0, lengths[i], target);
+                    }
+                }
+                out.seek(offsets[i] + lengths[i]);
+                i += 1;
+            }
+            out.getFD().sync();
+        } catch (IOException excp) {
+            NEW_PACK_FILE.delete();
+            throw Utils.error("Cannot write pack: %s", excp.getMessage());
+        }
+        writeIndex(encodeIndex(ids, offsets, lengths, times), NEW_INDEX_FILE);
+
+        // an index written by an earlier command must never be replayed over the new one
+        Journal.forget(INDEX_FILE);
+        close();
+        if (!NEW_PACK_FILE.renameTo(PACK_FILE)) {
+            throw Utils.error("Cannot write pack.");
+        }
+        installNewIndex();
+
+        for (File file : snapshot.looseFiles) {
+            deleteLoose(file);
+        }
+        deleteTempFiles(expiry);
+    }
+
+    /**
+     * Deletes the loose objects which are not kept (the pack is not changed)
+     *
+     * @param snapshot
+     * @param keep      whether the object at each position is kept (see Snapshot)
+     * @param expiry    the temporary files saved before this time are deleted (milliseconds)
+     */
+    static void prune(Snapshot snapshot, Predicate keep, long expiry) {
+        for (int i = 0; i < snapshot.looseFiles.length; i++) {
+            if (!keep.test(snapshot.packed + i)) {
+                deleteLoose(snapshot.looseFiles[i]);
+            }
+        }
+        deleteTempFiles(expiry);
+    }
+
+    /** Whether the object at a position of a snapshot is kept */
+    interface Predicate {
+        boolean test(int pos);
+    }
+
+    private static void deleteLoose(File file) {
+        File dir = file.getParentFile();
+        file.delete();
+        dir.delete();   // only succeeds when the folder became empty
+    }
+
+    /**
+     * Deletes the temporary files left by the commands killed while saving an object
+     * -- only the old ones: a recent one may belong to a command which is running
+     *
+     * @param expiry
+     */
+    private static void deleteTempFiles(long expiry) {
+        File[] files = GITLET_OBJECTS.listFiles((dir, name) -> name.startsWith("tmp_"));
+        for (File file : files == null ? new File[0] : files) {
+            if (file.lastModified() < expiry) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Finishes or rolls back a repack which was stopped in the middle (see repack)
+     *      - the new pack has been renamed -> the new index is renamed too
+     *      - otherwise -> the new files are deleted, the old pack and index are still valid
+     * -- only once each time the pack is opened, before it is read or written
+     */
+    private static synchronized void recoverRepack() {
+        if (recovered) {
+            return;
+        }
+        recovered = true;
+        if (NEW_PACK_FILE.exists()) {
+            NEW_PACK_FILE.delete();
+            NEW_INDEX_FILE.delete();
+        } else if (NEW_INDEX_FILE.exists()) {
+            installNewIndex();
+        }
+    }
+
+    private static synchronized void installNewIndex() {
+        close();
+        if (!NEW_INDEX_FILE.renameTo(INDEX_FILE)) {
+            throw Utils.error("Cannot write pack index.");
+        }
+    }
+
+    /**
+     * Appends objects to the end of the pack, and then writes a new index
+     * merging the old entries and the appended entries (see gc)
+     * -- saving many new objects this way writes and syncs two files,
+     *    instead of creating, renaming and syncing a loose file per object
+     * -- the appended objects can be read only after finish();
+     *    the objects appended by a command which fails before finish() are never indexed (nor read)
+     */
+    static class PackWriter {
+        private final RandomAccessFile out;
+
+        /** The appended objects */
+        private final HashSet<String> added = new HashSet<>();
+        private final List<byte[]> ids = new ArrayList<>();
+        private long[] offsets = new long[64];
+        private long[] lengths = new long[64];
+        private long[] times = new long[64];
+
+        PackWriter() {
+            lockPack();
+            recoverRepack();
+            try {
+                out = new RandomAccessFile(PACK_FILE, "rw");
+                if (out.length() == 0) {
+                    out.writeBytes("PACK");
+                    out.writeInt(VERSION);
+                }
+                out.seek(out.length());
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write pack: %s", excp.getMessage());
+            }
+        }
+
+        /**
+         * Checks whether the object with given id is saved, or has been appended
+         *
+         * @param id
+         * @return
+         */
+        boolean contains(String id) {
+            return added.contains(id) || ObjectStore.contains(id);
+        }
+
+        /**
+         * Appends an object (already compressed, see Codec), unless it is saved already
+         *
+         * @param id
+         * @param data
+         */
+        void add(String id, byte[] data) {
+            if (contains(id)) {
+                return;
+            }
+            try {
+                append(id, data.length, System.currentTimeMillis());
+                out.write(data);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write pack: %s", excp.getMessage());
+            }
+        }
+
+        /**
+         * Appends the object in a loose object file, unless it is packed already
+         *
+         * @param id
+         * @param file
+         */
+        void add(String id, File file) {
+            if (added.contains(id) || find(openIndex(), id) >= 0) {
+                return;
+            }
+            try (FileChannel in = FileChannel.open(file.toPath())) {
+                long length = in.size();
+                long offset = append(id, length, file.lastModified());
+                transfer(in, 0, length, out.getChannel());
+                out.seek(offset + length);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write pack: %s", excp.getMessage());
+            }
+        }
+
+        /**
+         * Writes the header of an object, and records its entry
+         *
+         * @param id
+         * @param length
+         * @param time      when the object was saved
+         * @return  the offset of the data of the object
+         */
+        private long append(String id, long length, long time) throws IOException {
+            out.write(toRaw(id));
+            if (length > Integer.MAX_VALUE) {
+                out.writeInt(-1);
+                out.writeLong(length);
+            } else {
+                out.writeInt((int) length);
+            }
+            int n = ids.size();
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * n);
+                lengths = Arrays.copyOf(lengths, 2 * n);
+                times = Arrays.copyOf(times, 2 * n);
+            }
+            added.add(id);
+            ids.add(toRaw(id));
+            offsets[n] = out.getFilePointer();
+            lengths[n] = length;
+            times[n] = time;
+            return offsets[n];
+        }
+
+        /**
+         * Syncs the pack, and writes the index of the old and the appended objects
+         * -- the index is saved with the other updates of the command (see Journal),
+         *    which keeps the pack locked until then
+         */
+        void finish() {
+            try (RandomAccessFile file = out) {
+                file.getFD().sync();
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write pack: %s", excp.getMessage());
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            PackIndex idx = openIndex();
+            int oldCount = idx != null ? idx.count : 0;
+            int n = oldCount + ids.size();
+            byte[][] allIds = new byte[n][];
+            long[] allOffsets = new long[n];
+            long[] allLengths = new long[n];
+            long[] allTimes = new long[n];
+            for (int i = 0; i < oldCount; i++) {
+                allIds[i] = idx.idAt(i);
+                allOffsets[i] = idx.offsetAt(i);
+                allLengths[i] = idx.lengthAt(i);
+                allTimes[i] = idx.timeAt(i);
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                allIds[oldCount + i] = ids.get(i);
+                allOffsets[oldCount + i] = offsets[i];
+                allLengths[oldCount + i] = lengths[i];
+                allTimes[oldCount + i] = times[i];
+            }
+            Journal.write(INDEX_FILE, encodeIndex(allIds, allOffsets, allLengths, allTimes));
+            close();
+        }
+    }
+
+    /**
+     * Returns every loose object file inside .gitlet/objects
+     *
+     * @return
+     */
+    private static List<File> looseFiles() {
+        List<File> result = new ArrayList<>();
+        String[] dirs = GITLET_OBJECTS.list();
+        if (dirs == null) {
+            return result;
+        }
+        Arrays.sort(dirs);
+        for (String dir : dirs) {
+            if (dir.length() != 2) {
+                continue;   // e.g. pack folder
+            }
+            List<String> files = Utils.plainFilenamesIn(Utils.join(GITLET_OBJECTS, dir));
+            for (String file : files) {
+                result.add(Utils.join(GITLET_OBJECTS, dir, file));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index for given entries, sorting them by their ids
+     *
+     * @param ids
+     * @param offsets
+     * @param lengths
+     * @param times
+     * @return
+     */
+    private static byte[] encodeIndex(byte[][] ids, long[] offsets, long[] lengths, long[] times) {
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+
+        int[] fanout = new int[256];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        for (int b = 1; b < 256; b++) {
+            fanout[b] += fanout[b - 1];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + FANOUT_SIZE + ids.length * 44);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes("PIDX");
+            out.writeInt(INDEX_VERSION);
+            for (int f : fanout) {
+                out.writeInt(f);
+            }
+            for (int i : order) {
+                out.write(ids[i]);
+            }
+            for (int i : order) {
+                out.writeLong(offsets[i]);
+            }
+            for (int i : order) {
+                out.writeLong(lengths[i]);
+            }
+            for (int i : order) {
+                out.writeLong(times[i]);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack index: %s", excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes given index into given file (synced, and then renamed)
+     * -- the loose objects are deleted after the rename (see repack), so the index must be on the disk first
+     *
+     * @param data
+     * @param target
+     */
+    private static void writeIndex(byte[] data, File target) {
+        File tmp = Utils.join(GITLET_PACK, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+            out.getFD().sync();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack index: %s", excp.getMessage());
+        }
+        if (!tmp.renameTo(target)) {
+            throw Utils.error("Cannot write pack index.");
+        }
+    }
+
+    /**
+     * Locks the pack against the other processes (waits until they release it), unless this command holds it already
+     * -- the lock is held until the updates of the command are saved (see Journal.hold),
+     *    so that the index written by the command is in place before another process appends to the pack
+     * -- the index mapped before the lock may miss the objects appended by another process -> mapped again
+     */
+    private static synchronized void lockPack() {
+        if (lock != null && lock.getChannel().isOpen()) {
+            return;
+        }
+        GITLET_PACK.mkdir();
+        try {
+            RandomAccessFile file = new RandomAccessFile(LOCK_FILE, "rw");
+            Journal.hold(file);
+            file.getChannel().lock();
+            lock = file;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot lock pack: %s", excp.getMessage());
+        }
+        close();
+    }
+
+    /**
+     * Maps the index into memory, if it has not been mapped yet
+     * (or the index written by this command, which is not saved yet: see PackWriter.finish).
+     * Returns null if there's no pack.
+     * -- the mapped index is read without the lock, since it is never changed once published
+     *
+     * @return
+     */
+    private static PackIndex openIndex() {
+        PackIndex idx = index;
+        return idx != null ? idx : mapIndex();
+    }
+
+    private static synchronized PackIndex mapIndex() {
+        if (index != null) {
+            return index;
+        }
+        recoverRepack();
+        ByteBuffer data = Journal.map(INDEX_FILE);     // the index written by this command, if any
+        if (data == null) {
+            return null;
+        }
+        index = new PackIndex(data);
+        return index;
+    }
+
+    /**
+     * Closes the pack and the index, so that they are reopened (and checked by recoverRepack) on the next read
+     */
+    static synchronized void close() {
+        index = null;
+        recovered = false;
+        if (pack != null) {
+            try {
+                pack.close();
+            } catch (IOException excp) {
+                // ignore; the pack is read-only here
+            }
+            pack = null;
+        }
+    }
+
+    /**
+     * Returns the position of given id inside given index
+     * -- if no object found (or no pack) -> return -1
+     *
+     * @param idx
+     * @param id
+     * @return
+     */
+    private static int find(PackIndex idx, String id) {
+        return idx == null ? -1 : idx.find(id);
+    }
+
+    /**
+     * The mapped index, with the number of its objects and its version
+     * -- immutable: only absolute reads of the mapping, so it can be shared by parallel streams
+     */
+    private static final class PackIndex {
+        private final ByteBuffer buffer;
+
+        /** The number of objects in the pack */
+        private final int count;
+
+        /** Version of the mapped index */
+        private final int version;
+
+        PackIndex(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.version = buffer.getInt(4);
+            this.count = buffer.getInt(HEADER_SIZE + FANOUT_SIZE - 4);
+        }
+
+        /**
+         * Returns the position of given id inside the index
+         * -- if no object found -> return -1
+         *
+         * @param id
+         * @return
+         */
+        int find(String id) {
+            byte[] raw = toRaw(id);
+            int first = raw[0] & 0xff;
+            int lo = first == 0 ? 0 : fanoutAt(first - 1);
+            int hi = fanoutAt(first) - 1;
+            byte[] probe = new byte[RAW_LENGTH];
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                buffer.get(idPosition(mid), probe);
+                int cmp = Arrays.compareUnsigned(probe, raw);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        int fanoutAt(int b) {
+            return buffer.getInt(HEADER_SIZE + b * 4);
+        }
+
+        int idPosition(int pos) {
+            return HEADER_SIZE + FANOUT_SIZE + pos * RAW_LENGTH;
+        }
+
+        byte[] idAt(int pos) {
+            byte[] raw = new byte[RAW_LENGTH];
+            buffer.get(idPosition(pos), raw);
+            return raw;
+        }
+
+        long offsetAt(int pos) {
+            return buffer.getLong(idPosition(count) + pos * 8);
+        }
+
+        long lengthAt(int pos) {
+            if (version == 1) {
+                return buffer.getInt(idPosition(count) + count * 8 + pos * 4);
+            }
+            return buffer.getLong(idPosition(count) + count * 8 + pos * 8);
+        }
+
+        /**
+         * Returns when the object at given position was saved (milliseconds)
+         * -- the indexes of older versions have no times -> the time the index was written
+         *
+         * @param pos
+         * @return
+         */
+        long timeAt(int pos) {
+            if (version < 3) {
+                return INDEX_FILE.lastModified();
+            }
+            return buffer.getLong(idPosition(count) + count * 16 + pos * 8);
+        }
+    }
+
+    /**
+     * Returns the channel of the pack (the pack is opened at the first call)
+     *
+     * @return
+     */
+    private static FileChannel packChannel() throws IOException {
+        RandomAccessFile file = pack;
+        return file != null ? file.getChannel() : openPack();
+    }
+
+    private static synchronized FileChannel openPack() throws IOException {
+        if (pack == null) {
+            pack = new RandomAccessFile(PACK_FILE, "r");
+        }
+        return pack.getChannel();
+    }
+
+    /**
+     * Reads LENGTH bytes at OFFSET of the pack
+     *
+     * @param offset
+     * @param length
+     * @return
+     */
+    private static byte[] readPacked(long offset, long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw Utils.error("Object is too large to be read at once.");
+        }
+        try (InputStream in = new PackInputStream(packChannel(), offset, length)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * A stream of LENGTH bytes at OFFSET of the pack.
+     * It uses positioned reads, so several streams can read the pack at the same time.
+     */
+    private static class PackInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        PackInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new IOException("unexpected end of pack");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // the pack stays open for other objects
+        }
+    }
+
+    /**
+     * Converts the 40-digit hexadecimal sha-1 id into 20 raw bytes
+     *
+     * @param id
+     * @return
+     */
+    static byte[] toRaw(String id) {
+        byte[] raw = new byte[RAW_LENGTH];
+        toRaw(id, raw, 0);
+        return raw;
+    }
+
+    /**
+     * Converts the 40-digit hexadecimal sha-1 id into 20 raw bytes at given position of DEST
+     *
+     * @param id
+     * @param dest
+     * @param pos
+     */
+    static void toRaw(String id, byte[] dest, int pos) {
+        for (int i = 0; i < RAW_LENGTH; i++) {
+            int hi = Character.digit(id.charAt(2 * i), 16);
+            int lo = Character.digit(id.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new NumberFormatException("not a sha-1 id: " + id);
+            }
+            dest[pos + i] = (byte) (hi << 4 | lo);
+        }
+    }
+
+    /**
+     * Converts the 20 raw bytes into 40-digit hexadecimal sha-1 id
+     *
+     * @param raw
+     * @return
+     */
+    static String toHex(byte[] raw) {
+        return toHex(raw, 0);
+    }
+
+    /**
+     * Converts the 20 raw bytes at given position into 40-digit hexadecimal sha-1 id
+     *
+     * @param data
+     * @param pos
+     * @return
+     */
+    static String toHex(byte[] data, int pos) {
+        byte[] hex = new byte[2 * RAW_LENGTH];
+        for (int i = 0; i < RAW_LENGTH; i++) {
+            int b = data[pos + i];
+            hex[2 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+}
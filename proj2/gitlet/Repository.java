@@ -1,7 +1,10 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -49,6 +52,46 @@ public class Repository {
 
     public static final File GITLET_LOG = join(GITLET_DIR, "logs");
 
+    /**
+     * File - Version of the repository format
+     * (no file: blob ids were generated with the file path -> needs "gitlet migrate")
+     */
+    public static final File GITLET_VERSION = join(GITLET_DIR, "version");
+    public static final int REPO_VERSION = 1;
+
+    /** The error for a repository (or a file in it) which has to be migrated first */
+    static final String OLDER_FORMAT = "This repository uses an older format. Please run \"java gitlet.Main migrate\" first.";
+
+    /**
+     * File - Parents and generation numbers of the commits (see CommitGraph)
+     */
+    public static final File GITLET_GRAPH = join(GITLET_DIR, "commit-graph");
+
+    /**
+     * File - Index of the commit messages in the log, for "find" (see MessageIndex)
+     */
+    public static final File GITLET_MESSAGES = join(GITLET_DIR, "messages");
+
+    /**
+     * File - Settings of the repository (see Config)
+     */
+    public static final File GITLET_CONFIG = join(GITLET_DIR, "config");
+
+    /**
+     * File - Updates of the metadata saved by the latest commands (see Journal)
+     */
+    public static final File GITLET_JOURNAL = join(GITLET_DIR, "journal");
+
+    /**
+     * File - Locked by a command from the replay of the journal to the end of the command (see Journal)
+     */
+    public static final File GITLET_LOCK = join(GITLET_DIR, "lock");
+
+    /**
+     * File - Rules of the files to be ignored (see Ignore)
+     */
+    public static final File GITLET_IGNORE = join(CWD, ".gitletignore");
+
     /**
      * Current HEADER
      */
@@ -74,37 +117,55 @@ public class Repository {
         GITLET_REFS.mkdir();
         GITLET_HEADS.mkdir();
         GITLET_OBJECTS.mkdir();
-        try {
-            GITLET_HEADER.createNewFile();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        try {
-            GITLET_STAGE.createNewFile();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        try {
-            GITLET_LOG.createNewFile();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        Journal.write(GITLET_LOG, new byte[0]);
 
         Commit comm = new Commit();
         comm.saveCommit();
         currbch = new Branch(DEFAULT_BRANCH, comm);
         currbch.saveBranch();
         String curr = "ref: refs/heads/" + currbch.getName();
-        Utils.writeObject(GITLET_HEADER, curr);
+        Journal.write(GITLET_HEADER, (curr + "\n").getBytes(StandardCharsets.UTF_8));
 
         StageArea stagearea = new StageArea();
-        Utils.writeObject(GITLET_STAGE, stagearea);
+        stagearea.saveStage();
+
+        Journal.write(GITLET_VERSION, String.valueOf(REPO_VERSION).getBytes(StandardCharsets.UTF_8));
 
-        Logs logs = new Logs();
-        logs.saveLogs();
+        Logs.appendItem(currbch.getName(), comm);
+    }
 
-        logs = Logs.loadLogs();
-        logs.appendItem(currbch.getName(), comm);
+    /**
+     * Returns the version of the repository format
+     * @return
+     */
+    public static int getRepoVersion() {
+        byte[] version = Journal.read(GITLET_VERSION);
+        if (version == null) {
+            return 0;
+        }
+        return Integer.parseInt(new String(version, StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Checks whether the repository has to be migrated before running any command
+     */
+    public static void checkRepoVersion() {
+        if (GITLET_DIR.exists() && getRepoVersion() < REPO_VERSION) {
+            throw new GitletException(OLDER_FORMAT);
+        }
+    }
+
+    /**
+     * Rewrites the repository created by an older version of gitlet
+     * (*) git migrate
+     */
+    public static void migrate() {
+        if (getRepoVersion() >= REPO_VERSION) {
+            System.out.println("Nothing to migrate.");
+            return;
+        }
+        Migration.migrate();
+        Journal.write(GITLET_VERSION, String.valueOf(REPO_VERSION).getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -124,17 +185,11 @@ public class Repository {
     public static void branch(String bname) {
         Branch br = Repository.getCurrBranch();
         File file = Utils.join(GITLET_HEADS, bname);
-        if (file.exists()) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
-        }
-        try {
-            file.createNewFile();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        if (Journal.exists(file)) {
+            throw Utils.error("A branch with that name already exists.");
         }
-        Branch branch = new Branch(bname, br.getPointer());
-        Utils.writeObject(file, branch);
+        Branch branch = new Branch(bname, br.getPointerId());
+        branch.saveBranch();
     }
 
     /**
@@ -142,7 +197,8 @@ public class Repository {
      * @return
      */
     public static Branch getCurrBranch() {
-        String header_ = Utils.readContentsAsString(GITLET_HEADER);
+        // "ref: refs/heads/[name]", or the same string serialized by older versions
+        String header_ = new String(Journal.read(GITLET_HEADER), StandardCharsets.UTF_8).trim();
         int idx = header_.lastIndexOf("/");
         return Branch.loadBranch(header_.substring(idx + 1));
     }
@@ -153,9 +209,9 @@ public class Repository {
      */
     public static void setCurrBranch(String bname) {
         File file = Utils.join(GITLET_HEADS, bname);
-        if (file.exists()) {
+        if (Journal.exists(file)) {
             String header = "ref: refs/heads/" + bname;
-            Utils.writeObject(GITLET_HEADER, header);
+            Journal.write(GITLET_HEADER, (header + "\n").getBytes(StandardCharsets.UTF_8));
         }
     }
 
@@ -179,42 +235,44 @@ public class Repository {
      */
     public static void rm_branch(String bname) {
         File file = Utils.join(GITLET_HEADS, bname);
-        if (!file.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (!Journal.exists(file)) {
+            throw Utils.error("A branch with that name does not exist.");
         }
         Branch br = Repository.getCurrBranch();
         if (br.getName().equals(bname)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw Utils.error("Cannot remove the current branch.");
         }
         // Utils.restrictedDelete(file);
-        file.delete();
+        Journal.delete(file);
     }
 
     /**
      * Prints all logs for current branch
+     * -- the walk stops when the writer wants no more entries (e.g. "log -n 20")
+     * @param writer
      */
-    public static void log() {
-        Branch curr = getCurrBranch();
-        Commit comm = curr.getPointer();
-        while (comm != null) {
-            System.out.println(Commit.printLog(comm));
-            String parr = Commit.getParent(comm.getId());
-
-            comm = (parr != null) ? Commit.loadCommit(parr) : null;
+    public static void log(LogWriter writer) {
+        for (String id : CommitGraph.firstParents(getCurrBranch().getPointerId())) {
+            if (!writer.wantsMore() || !writer.write(Commit.loadCommit(id))) {
+                break;
+            }
         }
+        writer.finish();
     }
 
     /**
      * Prints current status of StageArea
+     * -- every section comes from a single walk over the current commit, the staging area
+     *    and the working directory (see Status)
      */
     public static void status() {
+        StageArea sa = StageArea.stageArea();
+        Status st = Status.of(sa, getCurrBranch().getPointer().getTreeId());
         showBranches();
-        showStagedFiles();
-        showRemovedFiles();
-        showModifiedNotStagedFiles();
-        showUntrackedFiles();
+        showStagedFiles(st);
+        showRemovedFiles(st);
+        showModifiedNotStagedFiles(st, sa);
+        showUntrackedFiles(st);
     }
 
     /**
@@ -224,9 +282,7 @@ public class Repository {
         String curr = getCurrBranch().getName();
         System.out.println("=== Branches ===");
         System.out.println("*" + curr);
-        String[] branchNames = GITLET_HEADS.list();
-        Arrays.sort(branchNames);
-        for (String branch : branchNames) {
+        for (String branch : Journal.list(GITLET_HEADS)) {
             if(!branch.equals(curr)) {
                 System.out.println(branch);
             }
@@ -236,152 +292,159 @@ public class Repository {
 
     /**
      * Print a list of staged files
+     * @param st
      */
-    private static void showStagedFiles() {
+    private static void showStagedFiles(Status st) {
         System.out.println("=== Staged Files ===");
-        List<String> sortedKeys=new ArrayList<String>(StageArea.stageArea().getAdded().keySet());
-        Collections.sort(sortedKeys);
-        for (String path : sortedKeys) {
-            System.out.println(getRelativePath(path));
+        for (String path : st.staged) {
+            System.out.println(path);
         }
         System.out.println("  ");
     }
 
     /**
      * Print a list of to-be-removed files
+     * @param st
      */
-    private static void showRemovedFiles() {
+    private static void showRemovedFiles(Status st) {
         System.out.println("=== Removed Files ===");
-        List<String> sortedKeys = new ArrayList<String>(StageArea.stageArea().getRemoved());
-        Collections.sort(sortedKeys);
-        for (String path : sortedKeys) {
-            System.out.println(getRelativePath(path));
+        for (String path : st.removed) {
+            System.out.println(path);
         }
         System.out.println("  ");
     }
 
     /**
      * Print a list of modified-but-not-staged files
+     * -- only the tracked files need to be hashed (unchanged files are skipped by the stat cache)
+     * -- a tracked file is checked even if it is ignored (see Ignore)
+     * @param st
+     * @param sa
      */
-    public static void showModifiedNotStagedFiles() {
+    public static void showModifiedNotStagedFiles(Status st, StageArea sa) {
         System.out.println("=== Modification Not Staged For Commit ===");
 
-        HashMap<String, String> modified = getModifiedList();
-
-        Object[] mapkey = modified.keySet().toArray();
-        Arrays.sort(mapkey);
-        for (Object str : mapkey) {
-            System.out.println(str + " " + "(" + modified.get(str) + ")");
+        for (String file : st.modified()) {
+            System.out.println(file);
         }
-
-        System.out.println("  ");
-    }
-
-    /**
-     * Print a list of modified files with their status
-     * @return
-     */
-    private static HashMap<String, String> getModifiedList() {
-        List<String> flist = Utils.plainFilenamesIn(CWD);
-        HashMap<String, String> fmap = getCurrBranch().getPointer().getfmap();
-        HashMap<String, String> modified = new HashMap<>();
-        ArrayList<String> removed = StageArea.stageArea().getRemoved();
-
-        for (String file : flist) {
-            File thisFile = Utils.join(CWD, file);
-            String path = thisFile.getPath();
-
-            if (fmap.get(path) != null && !fmap.get(path).equals(Blob.generateId(thisFile))) {
-                // file have been modified
-                modified.put(file, "modified");
-            }
+        if (sa.statsChanged()) {
+            sa.saveStage();
         }
 
-        for (String file : fmap.keySet()) {
-            File f = Utils.join(file);
-            // exception!!: the files which is staged for removal
-            if (!f.exists() && !removed.contains(file)) {
-                modified.put(getRelativePath(file), "deleted");
-            }
-        }
-        return modified;
+        System.out.println("  ");
     }
 
     /**
      * Print a list of untracked files
+     * @param st
      */
-    public static void showUntrackedFiles() {
+    public static void showUntrackedFiles(Status st) {
         System.out.println("=== Untracked Files ===");
-        List<String> untracked = getUntrackedList();
-
-        for (String file : untracked) {
+        for (String file : st.untracked) {
             System.out.println(file);
         }
     }
 
     /**
-     * Checks all files in working directory whether they are untracked or not
-     * @return
+     * Deletes a file, and adds the directories it was in to DIRS
+     *
+     * @param file
+     * @param dirs
      */
-    private static List<String> getUntrackedList() {
-        StageArea sa = StageArea.stageArea();
-        HashMap<String, String> fmap = getCurrBranch().getPointer().getfmap();
-
-        List<String> flist = Utils.plainFilenamesIn(CWD);
-        List<String> untracked = new ArrayList<String>();
-        for (String file : flist) {
-            String path = Utils.join(CWD, file).getPath();
-            // if this file can't be seen in HEAD commit and staging area
-            if (fmap.get(path) == null && sa.getTracked().get(path) == null && !sa.getRemoved().contains(path)) {
-                untracked.add(file);
-            }
+    private static void deleteFile(File file, Set<File> dirs) {
+        file.delete();
+        // the parents of a directory already in DIRS are in DIRS too
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dirs.add(dir)) {
+            dir = dir.getParentFile();
         }
-        Collections.sort(untracked);
-        return untracked;
     }
 
     /**
-     * Add a file with given name
+     * Add the files with given names
+     * -- a name can also be a directory ("." for all files), or a glob pattern (e.g. "*.txt", "src/**.java"),
+     *    the files ignored by .gitletignore are left out of them (see Ignore)
+     * -- the files are hashed and saved in parallel, and the staging area is saved once
      * (*) git add
-     * @param filename
+     * @param filenames
      */
-    public static void add(String filename) {
-        File file = Utils.join(CWD, filename);
-
-        String filepath = file.getPath();
+    public static void add(String... filenames) {
         StageArea sa = StageArea.stageArea();
 
-        if (!file.exists() && sa.getTracked().get(filepath) == null) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+        // every name is checked before anything is staged
+        TreeSet<String> paths = new TreeSet<>();
+        for (String filename : filenames) {
+            if (!expand(filename, sa, paths)) {
+                throw Utils.error("File does not exist.");
+            }
         }
 
-        // exception: if the tracked file have been deleted -> should be capable of staging the file
-        if (!file.exists() && sa.getTracked().get(filepath) != null) {
-            sa.getRemoved().add(filepath);
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        // only the given files are looked up in the current commit
+        HashMap<String, String> committed = Tree.lookUp(getCurrBranch().getPointer().getTreeId(), paths);
+        if (sa.addAll(files, committed) || sa.statsChanged()) {
             sa.saveStage();
-            return;
         }
+    }
 
-        // If the current working version of the file is identical to the version in the current commit,
-        // do not stage it to be added, and remove it from the staging area if it is already there.
-        Commit comm = getCurrBranch().getPointer();
-        String prevBlobId = comm.getfmap().get(filepath);
-        String newBlobId = Blob.generateId(file);
-
-        // compare the id --> if they are same, then the file has not been changed.
-        if (prevBlobId != null && prevBlobId.equals(newBlobId)) {
-            // remove it from the staging area if it is already there.
-            if (sa.getAdded().get(filepath) != null) {
-                sa.getAdded().remove(filepath);
-                sa.saveStage();
+    /**
+     * Puts the paths of the files with given name into PATHS
+     *      1) a glob pattern -> the working files and the deleted tracked files matching it
+     *      2) a directory -> the working files and the deleted tracked files inside it
+     *      3) a file -> itself, if it exists or is tracked
+     * -- if no file is found for the name -> return false
+     *
+     * @param filename
+     * @param sa
+     * @param paths     absolute file paths
+     * @return
+     */
+    private static boolean expand(String filename, StageArea sa, Set<String> paths) {
+        File file = Utils.join(CWD, filename);
+        PathMatcher glob = null;
+        String dir;
+        if (filename.contains("*") || filename.contains("?") || filename.contains("[")) {
+            // the files are walked from the directory before the first wildcard
+            glob = FileSystems.getDefault().getPathMatcher("glob:" + filename);
+            Path literal = Path.of("");
+            for (Path name : Path.of(filename)) {
+                String s = name.toString();
+                if (s.contains("*") || s.contains("?") || s.contains("[")) {
+                    break;
+                }
+                literal = literal.resolve(name);
             }
-            return;
+            dir = literal.toString();
+        } else if (file.isDirectory()) {
+            dir = CWD.toPath().relativize(file.toPath().normalize()).toString();
+        } else {
+            if (!file.exists() && sa.getTrackedId(file.getPath()) == null) {
+                return false;
+            }
+            paths.add(file.getPath());
+            return true;
         }
 
-        // add to the stageArea
-        sa.add(file);
-        sa.saveStage();
+        int matched = 0;
+        for (String path : Walker.files(dir)) {
+            if (glob == null || glob.matches(Path.of(path))) {
+                paths.add(Utils.join(CWD, path).getPath());
+                matched += 1;
+            }
+        }
+        // the tracked files deleted from the directory, or matching the pattern, are staged for removal
+        String prefix = dir.isEmpty() ? CWD.getPath() + File.separator : Utils.join(CWD, dir).getPath() + File.separator;
+        for (String path : sa.getTracked().keySet()) {
+            if (path.startsWith(prefix) && !new File(path).exists()
+                    && (glob == null || glob.matches(Path.of(getRelativePath(path))))) {
+                paths.add(path);
+                matched += 1;
+            }
+        }
+        return glob == null || matched > 0;
     }
 
     /**
@@ -393,7 +456,7 @@ public class Repository {
         File file = Utils.join(CWD, filename);
 
         StageArea sa = StageArea.stageArea();
-        sa.rm(file);
+        sa.rm(file, Tree.lookUp(getCurrBranch().getPointer().getTreeId(), List.of(file.getPath())));
         sa.saveStage();
     }
 
@@ -402,33 +465,96 @@ public class Repository {
      * @param message
      */
     public static void find(String message) {
-        int num = 0;    // the number of Commits with given message
+        List<String> ids = MessageIndex.find(message);   // the Commits with given message
+        for (String id : ids) {
+            System.out.println(id);
+        }
+        if (ids.isEmpty()) {
+            // No commit found
+            throw Utils.error("Found no commit with that message.");
+        }
+    }
 
-        Logs logs = Logs.loadLogs();
+    /**
+     * Prints the changes in the working directory which are not staged (see Diff)
+     * -- the files in the staging area are compared with the working files (untracked files are left out)
+     * (*) git diff
+     */
+    public static void diff() {
+        StageArea sa = StageArea.stageArea();
+        HashMap<String, String> staged = sa.getTrackedCommit();
+        Diff.print(staged, workingVersions(staged.keySet(), sa), true);
+    }
 
-        ArrayList<Logs.Commits> comms = logs.getLog();
-        for (Logs.Commits comm : comms) {
-            if (comm.getCommit().getMessage().equals(message)) {
-                System.out.println(comm.getCommit().getId());
-                num += 1;
-            }
+    /**
+     * Prints the changes which are staged for the next commit
+     * (*) git diff --staged
+     */
+    public static void diffStaged() {
+        StageArea sa = StageArea.stageArea();
+        Diff.print(getCurrBranch().getPointer().getfmap(), sa.getTrackedCommit(), false);
+    }
+
+    /**
+     * Prints the changes in the working directory since the commit with given id
+     * -- the files in the commit or in the staging area are compared with the working files
+     * (*) git diff [commit id]
+     * @param commitId
+     */
+    public static void diffCommit(String commitId) {
+        HashMap<String, String> fmap = findCommit(commitId).getfmap();
+        StageArea sa = StageArea.stageArea();
+        HashSet<String> paths = new HashSet<>(fmap.keySet());
+        paths.addAll(sa.getTrackedCommit().keySet());
+        Diff.print(fmap, workingVersions(paths, sa), true);
+    }
+
+    /**
+     * Prints the changes between two commits
+     * (*) git diff [commit id] [commit id]
+     * @param fromId
+     * @param toId
+     */
+    public static void diffCommits(String fromId, String toId) {
+        Diff.print(findCommit(fromId).getfmap(), findCommit(toId).getfmap(), false);
+    }
+
+    /**
+     * Returns the blob ids of the working files with given paths (see StageArea.blobIds)
+     * -- a file which does not exist is left out
+     *
+     * @param paths
+     * @param sa
+     * @return
+     */
+    private static HashMap<String, String> workingVersions(Collection<String> paths, StageArea sa) {
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            files.add(new File(path));
         }
-        if (num == 0) {
-            // No commit found
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        HashMap<String, String> blobIds = sa.blobIds(files);
+        if (sa.statsChanged()) {
+            sa.saveStage();
         }
+        return blobIds;
     }
 
     /**
      * Prints all commits log (for all branches)
+     * -- the walk stops when the writer wants no more entries (e.g. "global-log -n 20")
+     * @param writer
      */
-    public static void global_log() {
-        Logs logs = Logs.loadLogs();
-        ArrayList<Logs.Commits> comms = logs.getLog();
-        for (Logs.Commits comm : comms) {
-            System.out.println(Commit.printLog(comm.getCommit()));
+    public static void global_log(LogWriter writer) {
+        for (Logs.Commits comm : Logs.getLog()) {
+            if (!writer.wantsMore()) {
+                break;
+            }
+            Commit commit = comm.getCommit();
+            if (commit != null && !writer.write(commit)) {
+                break;
+            }
         }
+        writer.finish();
     }
 
     /**
@@ -440,32 +566,35 @@ public class Repository {
         StageArea sa = StageArea.stageArea();
         // if no files have been staged
         if (sa.notStaged()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw Utils.error("No changes added to the commit.");
         }
 
         // Every commit must have a non-blank message.
         if (message.isBlank()) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw Utils.error("Please enter a commit message.");
         }
 
         Branch brr = getCurrBranch();
-        String parentId = brr.getPointer().getId();
+        String parentId = brr.getPointerId();
         ArrayList<String> parentIds = new ArrayList<String>();
         parentIds.add(parentId);
         Date now = new Date();
-        HashMap<String, String> fmap = StageArea.stageArea().getTrackedCommit();
 
-        Commit comm = new Commit(parentIds, fmap, now, message);
+        // only the trees of the directories with staged files are saved again
+        HashMap<String, String> changes = new HashMap<>(sa.getAdded());
+        for (String file : sa.getRemoved()) {
+            changes.put(file, null);
+        }
+        String treeId = Tree.update(brr.getPointer().getTreeId(), changes);
+
+        Commit comm = new Commit(parentIds, treeId, now, message);
         comm.saveCommit();
-        Logs logs = Logs.loadLogs();
-        logs.appendItem(getCurrBranch().getName(), comm);
+        Logs.appendItem(getCurrBranch().getName(), comm);
 
         // change the HEAD
         setCurrBranchCommit(comm);
 
-        StageArea.resetStageArea();
+        StageArea.resetStageArea(changes);
     }
 
     /**
@@ -476,7 +605,6 @@ public class Repository {
     public static void checkoutBranch(String bname) {
         Branch brr = Branch.loadBranch(bname);
         StageArea sa = StageArea.stageArea();
-        String currName = getCurrBranch().getName();
 
         /**
          * Perform this check before doing anything else. Do not change the CWD.
@@ -484,50 +612,114 @@ public class Repository {
 
         // If no branch with that name exists
         if (brr == null) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw Utils.error("No such branch exists.");
         }
 
         // If that branch is the current branch
         if (bname.equals(getCurrBranch().getName())) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
-        }
-
-        // If a working file is untracked in the current branch and would be overwritten by the checkout
-        if (!Repository.getUntrackedList().isEmpty()) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+            throw Utils.error("No need to checkout the current branch.");
         }
 
         /**
          * Main Part
          */
-        Commit comm = brr.getPointer();
-        HashMap<String, String> fmap = comm.getfmap();
-
-        // delete all files before checking out each files
-        List<String> files = Utils.plainFilenamesIn(CWD);
-        for (String file : files) {
-            File f = Utils.join(CWD, file);
-            f.delete();
-        }
-
-        // load all files in the target commit
-        for (String file : fmap.keySet()) {
-            String blobId = fmap.get(file);
-            Blob blob = Blob.loadBlob(blobId);
-            Blob.writeContents(blob);
-        }
+        // only the files which differ are changed, and the staging area is cleared
+        // -- fails if a working file is untracked in the current branch and would be overwritten
+        checkoutCommit(getCurrBranch().getPointer(), brr.getPointer(), sa);
 
         // the given branch will now be considered the current branch (HEAD)
         setCurrBranch(bname);
+    }
+
+    /**
+     * Changes the working directory from the files of commit FROM to the files of commit TO,
+     * and resets the staging area to TO
+     * -- only the files which differ are written or deleted:
+     *      1) the files changed between the two commits (see Tree.diff)
+     *      2) the tracked or staged files whose working version is not the one in FROM
+     *         (found with the stat cache, so the unchanged files are not read)
+     *    every other file already has its contents in TO, and is not touched.
+     * -- the files of FROM are read from the staging area, not from its trees: every file of the current commit
+     *    has an entry, which tracks its version in the commit unless it is staged (only those are looked up)
+     * -- if a working file is untracked in FROM and would be overwritten -> error, before anything is changed
+     *    (an ignored file is overwritten, see Ignore)
+     *
+     * @param from  the current commit
+     * @param to
+     * @param sa
+     */
+    private static void checkoutCommit(Commit from, Commit to, StageArea sa) {
+        HashMap<String, String> changes = Tree.diff(from.getTreeId(), to.getTreeId());
+        HashMap<String, String> fromFmap = new HashMap<>();
+        List<String> staged = new ArrayList<>();
+        sa.forEachFile((path, trackedId, added, removed) -> {
+            if (added) {
+                staged.add(path);
+            } else if (trackedId != null) {
+                fromFmap.put(path, trackedId);
+            }
+        });
+        fromFmap.putAll(Tree.lookUp(from.getTreeId(), staged));
+
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            if (change.getValue() != null && !fromFmap.containsKey(path) && sa.getTrackedId(path) == null
+                    && new File(path).isFile() && !Ignore.load().ignored(getRelativePath(path))) {
+                throw Utils.error("There is an untracked file in the way; delete it, or add and commit it first.");
+            }
+        }
 
-        // The staging area is cleared, unless the checked-out branch is the current branch
-        if (!currName.equals(bname)) {
-            StageArea.resetStageArea();
+        HashSet<String> paths = new HashSet<>(fromFmap.keySet());
+        paths.addAll(changes.keySet());
+        paths.addAll(staged);
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        HashMap<String, String> current = sa.blobIds(files);
+
+        HashMap<String, String> writes = new HashMap<>();
+        TreeSet<File> dirs = new TreeSet<>(Comparator.reverseOrder());  // the deepest first
+        for (File file : files) {
+            String path = file.getPath();
+            String target = changes.containsKey(path) ? changes.get(path) : fromFmap.get(path);
+            if (target == null) {
+                if (current.get(path) != null) {
+                    deleteFile(file, dirs);
+                    sa.cacheStat(file, null);
+                }
+            } else if (!target.equals(current.get(path))) {
+                writes.put(path, target);
+            }
+        }
+        for (File dir : dirs) {
+            dir.delete();   // only succeeds when the folder became empty
+        }
+
+        writeFiles(writes);
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            sa.cacheStat(new File(entry.getKey()), entry.getValue());
         }
+        sa.resetTo(changes, to.getTreeId());
+        sa.saveStage();
+    }
 
+    /**
+     * Writes all files of given file list into the working directory
+     * -- the blobs are read in the order they are laid out in the pack,
+     *    split into runs which are written in parallel (fork-join)
+     * @param fmap  file path <--> blob id
+     */
+    private static void writeFiles(HashMap<String, String> fmap) {
+        HashMap<String, List<String>> paths = new HashMap<>();
+        for (Map.Entry<String, String> entry : fmap.entrySet()) {
+            paths.computeIfAbsent(entry.getValue(), id -> new ArrayList<>()).add(entry.getKey());
+        }
+        ObjectStore.diskOrder(paths.keySet()).parallelStream().forEach(blobId -> {
+            for (String path : paths.get(blobId)) {
+                Blob.writeContents(blobId, new File(path));
+            }
+        });
     }
 
     /**
@@ -540,17 +732,13 @@ public class Repository {
         File file = Utils.join(CWD, fname);
         String filepath = file.getPath();
 
-        Branch curr = getCurrBranch();
-        Commit comm = curr.getPointer();
-        if (comm.getfmap().get(filepath) == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
-        }
-        String blobId = curr.getPointer().getfmap().get(filepath);
-        if (blobId != null) {
-            Blob blob = Blob.loadBlob(blobId);
-            Blob.writeContents(blob);
+        // only the trees on the path of the file are loaded
+        Commit comm = getCurrBranch().getPointer();
+        String blobId = Tree.lookUp(comm.getTreeId(), List.of(filepath)).get(filepath);
+        if (blobId == null) {
+            throw Utils.error("File does not exist in that commit.");
         }
+        Blob.writeContents(blobId, file);
     }
 
     /**
@@ -564,32 +752,14 @@ public class Repository {
         File file = Utils.join(CWD, filename);
         String filepath = file.getPath();
 
-        Logs logs = Logs.loadLogs();
-
-        ArrayList<Logs.Commits> commitLogs = logs.getLog();
-
-        Commit targetCommit = null;
+        Commit targetCommit = findCommit(commitId);
 
-        for (Logs.Commits comm : commitLogs) {
-            Commit commit = comm.getCommit();
-            if (commit.getId().equals(commitId)) {
-                targetCommit = commit;
-            }
-        }
-
-        if (targetCommit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-
-        String blobId = targetCommit.getfmap().get(filepath);
+        String blobId = Tree.lookUp(targetCommit.getTreeId(), List.of(filepath)).get(filepath);
         if (blobId == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw Utils.error("File does not exist in that commit.");
         }
 
-        Blob blob = Blob.loadBlob(blobId);
-        Blob.writeContents(blob);
+        Blob.writeContents(blobId, file);
     }
 
     /**
@@ -598,47 +768,15 @@ public class Repository {
      * @param commId
      */
     public static void reset(String commId) {
-        Logs logs = Logs.loadLogs();
-        Commit targetCommit = null;
-
-        ArrayList<Logs.Commits> comms = logs.getLog();
-        for (Logs.Commits comm : comms) {
-            if (comm.getCommit().getId().equals(commId)) {
-                targetCommit = comm.getCommit();
-            }
-        }
-
-        // If no commit with the given id exists
-        if (targetCommit == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-
-        // If a working file is untracked in the current branch and would be overwritten by the reset
-        if (!getUntrackedList().isEmpty()) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
-        }
-
-        // delete all files before checking out each files
-        List<String> files = Utils.plainFilenamesIn(CWD);
-        for (String file : files) {
-            File f = Utils.join(CWD, file);
-            f.delete();
-        }
+        // If no commit with the given id exists -> findCommit exits
+        Commit targetCommit = findCommit(commId);
 
-        HashMap<String, String> fmap = targetCommit.getfmap();
-        for (String file : fmap.keySet()) {
-            String blobId = fmap.get(file);
-            Blob blob = Blob.loadBlob(blobId);
-            Blob.writeContents(blob);
-        }
+        // only the files which differ are changed, and the staging area is cleared
+        // -- fails if a working file is untracked in the current branch and would be overwritten
+        checkoutCommit(getCurrBranch().getPointer(), targetCommit, StageArea.stageArea());
 
         // moves the current branch's head to that commit node
         setCurrBranchCommit(targetCommit);
-
-        // The staging area is cleared
-        StageArea.resetStageArea();
     }
 
     /**
@@ -656,20 +794,23 @@ public class Repository {
 
         // If there are staged additions or removals present
         if (!sa.notStaged()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw Utils.error("You have uncommitted changes.");
         }
 
-        // If a branch with the given name does not exist
-        if (brr == null) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        // If a branch with the given name does not exist,
+        // it can be the (abbreviated) id of a commit to be merged
+        boolean isBranch = brr != null;
+        if (!isBranch) {
+            List<String> ids = Commit.findIds(bname);
+            if (ids.size() != 1) {
+                throw Utils.error("A branch with that name does not exist.");
+            }
+            brr = new Branch(bname, ids.get(0));
         }
 
         // If attempting to merge a branch with itself
         if (bname.equals(curr.getName())) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw Utils.error("Cannot merge a branch with itself.");
         }
 
         // If merge would generate an error because the commit that it does has no changes in it,
@@ -680,9 +821,8 @@ public class Repository {
         Commit comm2 = brr.getPointer();
 
         // If an untracked file in the current commit would be overwritten or deleted by the merge
-        if (!Repository.getUntrackedList().isEmpty()) {
-            System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+        if (!Status.of(sa, comm1.getTreeId()).untracked.isEmpty()) {
+            throw Utils.error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
 
         /**
@@ -690,210 +830,113 @@ public class Repository {
          */
 
         // LCA; latest common ancestor
-        Commit lca = LCAwithId(comm1.getId(), comm2.getId());
+        // -- compared by id: the same commit may be loaded as different instances (see ObjectCache)
+        String lcaId = LCA(comm1, comm2);
 
         // If the split point is the same commit as the given branch,
         // then we do nothing; the merge is complete
-        if (comm1.equals(lca)) {
+        if (comm2.getId().equals(lcaId)) {
             System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            return;
         }
 
         // If the split point is the current branch,
         // then the effect is to check out the given branch
-        if (comm2.equals(lca)) {
-            Repository.checkoutBranch(bname);
+        if (comm1.getId().equals(lcaId)) {
+            if (isBranch) {
+                Repository.checkoutBranch(bname);
+            } else {
+                Repository.reset(comm2.getId());
+            }
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         }
 
         /**
          * Main Part of Merge
          */
 
-        // <1>
-        // Any files that have been modified in the given branch since the split point,
-        // but not modified in the current branch since the split point should be changed to their versions in the given branch
-        HashMap<String, String> lcaFmap = lca.getfmap();
-        HashMap<String, String> currFmap = curr.getPointer().getfmap();
-        HashMap<String, String> givenFmap = brr.getPointer().getfmap();
-
-        if (currFmap.equals(givenFmap)) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
-        }
-
-        // file list of which the files have been modified in the given branch but same in current branch
-        // modified -> should be automatically checked out and staged
-        HashMap<String, String> modified = new HashMap<>();
-        for (String file : givenFmap.keySet()) {
-            boolean fileExistsAll = lcaFmap.get(file) != null && currFmap.get(file) != null && givenFmap.get(file) != null;
-            boolean modifiedInGivenBranch = !currFmap.get(file).equals(givenFmap.get(file));
-            boolean sameInCurrentBranch = lcaFmap.get(file).equals(currFmap.get(file));
-            if (fileExistsAll && modifiedInGivenBranch && sameInCurrentBranch) {
-                modified.put(file, givenFmap.get(file));
-            }
-        }
-
-        // checked out and staged
-        for (String file : modified.keySet()) {
-            Repository.checkoutFileCommit(comm2.getId(), Repository.getRelativePath(file));
-            File f = new File(file);
-            sa.add(f);
-            sa.saveStage();
-        }
-
-        // <2>
-        // Any files that have been modified in the current branch
-        // but not in the given branch since the split point should stay as they are.
-        HashMap<String, String> preserved = new HashMap<>();
-        for (String file : currFmap.keySet()) {
-            boolean fileExistsAll = lcaFmap.get(file) != null && currFmap.get(file) != null && givenFmap.get(file) != null;
-            boolean modifiedInCurrentBranch = !currFmap.get(file).equals(lcaFmap.get(file));
-            boolean sameInGivenBranch = lcaFmap.get(file).equals(givenFmap.get(file));
-            if (fileExistsAll && modifiedInCurrentBranch && sameInGivenBranch) {
-                preserved.put(file, currFmap.get(file));
-            }
-        }
-
-        // <3>
-        for (String file : currFmap.keySet()) {
-            boolean fileExistsAll = lcaFmap.get(file) != null && currFmap.get(file) != null && givenFmap.get(file) != null;
-            boolean currbrrIsSameWithGivenbrr = currFmap.get(file).equals(givenFmap.get(file));
-            if (fileExistsAll && currbrrIsSameWithGivenbrr) {
-                preserved.put(file, currFmap.get(file));
-            }
-        }
-
-        // <4>
-        // Any files that were not present at the split point and are present only
-        // in the current branch should remain as they are.
-        for (String file : currFmap.keySet()) {
-            boolean notPresentInLCA = lcaFmap.get(file) == null;
-            boolean presentInCurrBrr = givenFmap.get(file) == null;
-            if (notPresentInLCA && presentInCurrBrr) {
-                preserved.put(file, currFmap.get(file));
-            }
-        }
-
-
-        // <5>
-        // Any files that were not present at the split point and are present only in the given branch should be checked out and staged.
-        // modified2 -> should be automatically checked out and staged
-        HashMap<String, String> modified2 = new HashMap<>();
-        for (String file : givenFmap.keySet()) {
-            boolean notPresentInLCA = lcaFmap.get(file) == null;
-            boolean notPresentInCurrBrr = currFmap.get(file) == null;
-            if (notPresentInLCA && notPresentInCurrBrr) {
-                modified2.put(file, givenFmap.get(file));
-            }
-        }
-
-        // checked out and staged
-        for (String file : modified2.keySet()) {
-            Repository.checkoutFileCommit(comm2.getId(), Repository.getRelativePath(file));
-            File f = new File(file);
-            sa.add(f);
-            sa.saveStage();
-        }
-
-        // <6>
-        // Any files present at the split point, unmodified in the current branch,
-        // and absent in the given branch should be removed (and untracked)
-        ArrayList<String> removed = new ArrayList<>();
-        for (String file : lcaFmap.keySet()) {
-            boolean presentInLCA = lcaFmap.get(file) != null;
-            boolean lcaSameWithCurrBrr = lcaFmap.get(file).equals(currFmap.get(file));
-            boolean notPresentInGivenBrr = givenFmap.get(file) == null;
-            if (presentInLCA && lcaSameWithCurrBrr && notPresentInGivenBrr) {
-                removed.add(file);
-            }
-        }
-
-        // <7>
-        // Any files present at the split point, unmodified in the given branch,
-        // and absent in the current branch should remain absent.
-        for (String file : lcaFmap.keySet()) {
-            boolean givenSameWithLCA = givenFmap.get(file).equals(lcaFmap.get(file));
-            boolean notPresentInCurrBrr = currFmap.get(file) == null;
-            if (givenSameWithLCA && notPresentInCurrBrr) {
-                removed.add(file);
-            }
-        }
-
-        // <8>
-        // Any files modified in different ways in the current and given branches are in conflict.
-        // 1) the contents of both are changed and different from other
-        // 2) the contents of one are changed and the other file is deleted
-        // 3) file was absent at the split point and has different contents in the given and current branches
-
-        HashMap<String, String> conflicted = new HashMap<>();
+        // only the files changed since the split point are compared (see Tree.diff)
+        String lcaTreeId = Commit.loadCommit(lcaId).getTreeId();
+        HashMap<String, String> currChanges = Tree.diff(lcaTreeId, comm1.getTreeId());
+        HashMap<String, String> givenChanges = Tree.diff(lcaTreeId, comm2.getTreeId());
+        HashMap<String, String> lcaFmap = Tree.lookUp(lcaTreeId, givenChanges.keySet());
+
+        // the two branches have the same files
+        // if every file changed in the given branch has the same version in the current one, and vice versa
+        boolean same = givenChanges.keySet().containsAll(currChanges.keySet());
+        for (Map.Entry<String, String> change : givenChanges.entrySet()) {
+            String ours = currChanges.containsKey(change.getKey())
+                    ? currChanges.get(change.getKey()) : lcaFmap.get(change.getKey());
+            same &= Objects.equals(ours, change.getValue());
+        }
+        if (same) {
+            throw Utils.error("No changes added to the commit.");
+        }
+
+        // Each file is decided by its versions at the split point, in the current and in the given branch
+        // (null: the file is absent)
+        // <1> the same in both branches (or absent in both)    -> stays as it is
+        // <2> unchanged in the given branch since the split point   -> stays as it is
+        // <3> unchanged in the current branch since the split point -> checked out from the given branch
+        //     (or removed, if it is absent there)
+        // <4> changed in different ways in both branches        -> the lines are merged (see Merge),
+        //     only the regions changed in both are in conflict (a file deleted in one branch is merged as empty)
+        // so only the files changed in the given branch are visited: any other file is <2>
+        HashMap<String, String> changes = new HashMap<>();  // file path <--> blob id in the merge commit (null: removed)
+        HashMap<String, String> checkouts = new HashMap<>();
+        TreeSet<File> dirs = new TreeSet<>(Comparator.reverseOrder());  // the deepest first
         boolean isConflict = false;
-
-        /**
-         * This following codes for three cases will be optimized soon. The inner code is the same..
-         */
-
-        // <8> - case1
-        for (String file : currFmap.keySet()) {
-            boolean fileExistsAll = lcaFmap.get(file) != null && currFmap.get(file) != null && givenFmap.get(file) != null;
-            boolean currIsNotSameWithGivenBrr = !currFmap.get(file).equals(givenFmap.get(file));
-            if (fileExistsAll && currIsNotSameWithGivenBrr) {
-                addConflicted(file, currFmap, givenFmap, conflicted);
-                isConflict = true;
+        for (String file : givenChanges.keySet()) {
+            String base = lcaFmap.get(file);
+            String ours = currChanges.containsKey(file) ? currChanges.get(file) : base;
+            String theirs = givenChanges.get(file);
+            if (Objects.equals(ours, theirs) || Objects.equals(base, theirs)) {
+                continue;
             }
-        }
-
-        // <8> - case2
-        for (String file : currFmap.keySet()) {
-            boolean existsInLCA = lcaFmap.get(file) != null;
-            boolean notExistsInGiven = givenFmap.get(file) == null;
-            boolean sameInCurrent = !currFmap.get(file).equals(lcaFmap.get(file));
-            boolean changedInGiven = !givenFmap.get(file).equals(lcaFmap.get(file));
-
-            boolean existsInCurr = currFmap.get(file) == null;
-            if ((existsInLCA && sameInCurrent && notExistsInGiven) &&
-                    (existsInLCA && existsInCurr && changedInGiven)) {
-                addConflicted(file, currFmap, givenFmap, conflicted);
-                isConflict = true;
+            File f = new File(file);
+            if (Objects.equals(base, ours)) {
+                changes.put(file, theirs);
+                if (theirs != null) {
+                    checkouts.put(file, theirs);
+                } else {
+                    deleteFile(f, dirs);
+                    sa.cacheStat(f, null);
+                }
+                continue;
             }
+            isConflict |= Merge.merge(base, ours, theirs, f);
+            String blobId = Blob.saveFile(f);
+            changes.put(file, blobId);
+            sa.cacheStat(f, blobId);
         }
-
-        // <8> - case3
-        for (String file : currFmap.keySet()) {
-            boolean existsInLCA = lcaFmap.get(file) == null;
-            boolean notInCurrAndGiven = currFmap.get(file) != null && givenFmap.get(file) != null;
-            boolean notSameInCurrAndGiven = !currFmap.get(file).equals(givenFmap.get(file));
-            if (existsInLCA && notInCurrAndGiven && notSameInCurrAndGiven) {
-                addConflicted(file, currFmap, givenFmap, conflicted);
-                isConflict = true;
-            }
+        for (File dir : dirs) {
+            dir.delete();   // only succeeds when the folder became empty
         }
-
-        // tracked file list
-        HashMap<String, String> tracked = new HashMap<>();
-        tracked.putAll(modified);
-        tracked.putAll(modified2);
-        tracked.putAll(conflicted);
-        tracked.putAll(preserved);
-        for (String file : removed) {
-            tracked.remove(file);  // removal
+        writeFiles(checkouts);
+        for (Map.Entry<String, String> entry : checkouts.entrySet()) {
+            sa.cacheStat(new File(entry.getKey()), entry.getValue());
         }
 
         ArrayList<String> parentIds = new ArrayList<>();
-        parentIds.add(curr.getPointer().getId());
-        parentIds.add(brr.getPointer().getId());
+        parentIds.add(curr.getPointerId());
+        parentIds.add(brr.getPointerId());
 
         Date now = new Date();
 
         // commit message for merge commit
         String commitMsg = String.format("Merged %s into %s.", bname, curr.getName());
 
-        Commit mergeCommit = new Commit(parentIds, tracked, now, commitMsg);
+        // only the trees of the directories with changed files are saved again
+        String treeId = Tree.update(comm1.getTreeId(), changes);
+        Commit mergeCommit = new Commit(parentIds, treeId, now, commitMsg);
         mergeCommit.saveCommit();
 
-        Logs logs = Logs.loadLogs();
-        logs.appendItem(curr.getName(), mergeCommit);
+        Logs.appendItem(curr.getName(), mergeCommit);
+        setCurrBranchCommit(mergeCommit);
+
+        sa.resetTo(changes, treeId);
+        sa.saveStage();
 
         // if the merge encountered a conflict, print the message on the console
         if (isConflict) {
@@ -902,127 +945,73 @@ public class Repository {
     }
 
     /**
-     * Returns the least common ancestor of given two commits
-     * LINK: https://www.crocus.co.kr/660
-     * @param c1    first node for LCA target
-     * @param c2    second node for LCA target
-     * @return      LCA node of given two nodes
+     * Returns the commit with given id, which can be abbreviated to a unique prefix
+     * (at least 4 digits, see ObjectStore.findPrefix)
+     * -- if no commit is found or the prefix is ambiguous -> print error and exit
+     *
+     * @param commitId
+     * @return
      */
-    private static Commit LCA(Commit c1, Commit c2) {
-        // calculate tree label for two given Commits
-        int l1 = getLevel(c1);
-        int l2 = getLevel(c2);
-
-        int balance = l1 - l2;
-        balanceNode(c1, c2, balance);
-        while (true) {
-            boolean c1IsRootNode = Commit.getParent(c1.getId()) == null;
-            boolean c2IsRootNode = Commit.getParent(c2.getId()) == null;
-            boolean c1IsSameWithc2 = c1.equals(c2);
-            if (c1IsRootNode || c2IsRootNode || c1IsSameWithc2) {
-                break;
-            }
-            c1 = Commit.loadCommit(Commit.getParent(c1.getId()));
-            c2 = Commit.loadCommit(Commit.getParent(c2.getId()));
+    private static Commit findCommit(String commitId) {
+        List<String> ids = Commit.findIds(commitId);
+        if (ids.isEmpty()) {
+            throw Utils.error("No commit with that id exists.");
         }
-        return c1;
+        if (ids.size() > 1) {
+            throw Utils.error("Commit id %s is ambiguous.", commitId);
+        }
+        return Commit.loadCommit(ids.get(0));
     }
 
     /**
-     * Balance two given commit nodes depending on their balance difference
-     * @param c1
-     * @param c2
-     * @param balance   level(c1) - level(c2)
+     * Prints the value of given setting
+     * -- if the setting is not set -> print nothing
+     * (*) git config [key]
+     *
+     * @param key
      */
-    private static void balanceNode(Commit c1, Commit c2, int balance) {
-        if (balance == 0)
-            return;
-        if (balance > 0) {
-            // c1 is deeper than c2 -> c1 should be go upstairs
-            for (int i = 0; i < balance; i++) {
-                c1 = Commit.loadCommit(Commit.getParent(c1.getId()));
-            }
-        }
-        else {
-            // c2 is deeper than c1 -> c2 should be go upstairs
-            int b = -balance;
-            for (int i = 0; i < b; i++) {
-                c2 = Commit.loadCommit(Commit.getParent(c2.getId()));
-            }
+    public static void config(String key) {
+        String value = Config.get(key, null);
+        if (value != null) {
+            System.out.println(value);
         }
     }
 
     /**
-     * Find least common anscestor of given commits
-     * with their commit id
-     * @param c1
-     * @param c2
-     * @return
+     * Sets the value of given setting
+     * (*) git config [key] [value]
+     *
+     * @param key
+     * @param value
      */
-    private static Commit LCAwithId(String c1, String c2) {
-        Commit cc1 = Commit.loadCommit(c1);
-        Commit cc2 = Commit.loadCommit(c2);
-        return Repository.LCA(cc1, cc2);
+    public static void config(String key, String value) {
+        Config.set(key, value);
     }
 
     /**
-     * Returns the level of given commit node
-     * @param comm  given commit node
-     * @return      level of given commit node (level of root node = 0)
+     * Removes the unreachable objects, and moves the others into the pack (see GarbageCollector)
+     * (*) git gc
      */
-    private static int getLevel(Commit comm) {
-        if (Commit.getParent(comm.getId()) == null)
-            return 0;
-        else {
-            return 1 + getLevel(Commit.loadCommit(
-                    Commit.getParent(comm.getId())
-            ));
-        }
+    public static void gc() {
+        GarbageCollector.gc();
     }
 
     /**
-     * Mark conflicted file and write them in working directory
-     * See also: Repository.conflicted method
-     * @param file
-     * @param currFmap
-     * @param givenFmap
-     * @param conflicted
+     * Removes the unreachable loose objects (see GarbageCollector)
+     * (*) git prune
      */
-    private static void addConflicted(String file, HashMap<String, String> currFmap, HashMap<String, String> givenFmap, HashMap<String, String> conflicted) {
-        String currFile = new String(Blob.loadBlob(currFmap.get(file)).getContentRaw());
-        String givenFile = new String(Blob.loadBlob(givenFmap.get(file)).getContentRaw());
-        String conflict = Repository.conflicted(currFile, givenFile);
-
-        // write file ...
-        File f = new File(file);
-        Utils.writeContents(f, conflict);
-        Blob blob = new Blob(f);
-        blob.saveBlob();
-
-        // add to the conflicted file list
-        conflicted.put(file, blob.getId());
+    public static void prune() {
+        GarbageCollector.prune();
     }
 
     /**
-     * Return the content of conflicted file with given form
-     *
-     * <<<<<<< HEAD
-     * [current branch file content]
-     * =======
-     * [given branch file content]
-     * >>>>>>>
-     *
-     * @param currFile
-     * @param givenFile
-     * @return
+     * Returns the least common ancestor of given two commits
+     * -- both parents of merge commits are followed (see CommitGraph.mergeBase)
+     * @param c1    first node for LCA target
+     * @param c2    second node for LCA target
+     * @return      the id of the LCA node of given two nodes
      */
-    private static String conflicted(String currFile, String givenFile) {
-        String result = "<<<<<<< HEAD" + "\n";
-        result += currFile;
-        result += "=======" + "\n";
-        result += givenFile;
-        result += ">>>>>>>";
-
-        return result;
+    private static String LCA(Commit c1, Commit c2) {
+        return CommitGraph.mergeBase(c1.getId(), c2.getId());
     }
 }
@@ -1,10 +1,26 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 import static gitlet.Repository.GITLET_STAGE;
 import static gitlet.Repository.getCurrBranch;
@@ -17,63 +33,241 @@ import static gitlet.Repository.getCurrBranch;
  *  "git rm" can unstage the added files or remove file from the working directory.
  *  "git commit" can convert this StageArea into a commit.
  *
+ *  The StageArea also keeps a stat cache (size, modified time, inode and blob id of each file),
+ *  so "git status" can skip reading and hashing the files which have not been changed.
+ *
+ *  The index file is memory-mapped, not read as a whole: a file is looked up by binary search in its sorted entries,
+ *  and only the entries which are used are read. The entries changed by a command are appended to the index
+ *  (so "add" and "rm" of a few files write a few entries), and the index is written again, sorted,
+ *  when more than max(TAIL_MIN, N / TAIL_RATIO) entries have been appended.
+ *
  * @author Gaon Choi
  */
 public class StageArea implements Serializable {
+    /** Fixed, so that the StageArea saved by older versions of gitlet can still be loaded. */
+    private static final long serialVersionUID = 1631875621847769617L;
+
     /**
-     * Structure of HashMap
-     * file path <--> blob id
+     * The fields of the StageArea serialized by older versions of gitlet
+     * -- only read by stageArea, the staging area is kept in the entries below
+     */
+    private HashMap<String, String> added;
+    private ArrayList<String> removed;
+    private HashMap<String, String> tracked;
+    private HashMap<String, FileStat> stats;
+
+    // the time when this StageArea was saved (nanoseconds since epoch)
+    private long savedAt;
+
+    // whether the stat cache has been changed since this StageArea was loaded
+    private transient boolean statsChanged;
+
+    // the mapped index: the sorted entries (null: not saved in the current format yet)
+    private transient ByteBuffer base;
+
+    // the number of the sorted entries
+    private transient int count;
+
+    // the number of the entries appended to the index
+    private transient int appended;
+
+    // file path <--> the entries changed since the sorted entries were written (Entry.NONE: the file was dropped)
+    private transient TreeMap<String, Entry> changes = new TreeMap<>();
+
+    // the paths changed by this command, which are appended when this StageArea is saved
+    private transient HashSet<String> dirty = new HashSet<>();
+
+    // file path <--> the sorted entries looked up so far
+    private transient HashMap<String, Entry> found = new HashMap<>();
+
+    /**
+     * Binary format of the staging area, .gitlet/index
+     *      "GIDX" | version(1 byte) | savedAt(long) | N(int) | end(int)
+     *          | offsets: { position of an entry(int) }*N, sorted by the path of the entry
+     *          | { entry }*N
+     *          | { update }*   (from end: appended by the commands after the index was written)
+     *      entry : flags(1 byte) | path length(int) | path(UTF-8) | [tracked blob id(20 bytes)]
+     *                  | [stat data (see FileStat.write)]
+     *              - flags: TRACKED, ADDED, REMOVED, STAT (which of the optional parts are written)
+     *      update: ENTRY | entry (the latest entry of the path, flags 0: the path was dropped)
+     *              SAVED | savedAt(long)
+     * Version 1 (see decodeV1) and the StageArea saved by older versions of gitlet
+     * (a serialized StageArea instance) are still read, and written again in this format.
      */
+    private static final byte[] MAGIC = {'G', 'I', 'D', 'X'};
+    private static final int FORMAT_VERSION = 2;
+
+    /** Size of the header: magic + version + savedAt + N + end */
+    private static final int HEADER_SIZE = 21;
+
+    /** Flags of an entry */
+    private static final int TRACKED = 1;
+    private static final int ADDED = 2;
+    private static final int REMOVED = 4;
+    private static final int STAT = 8;
+    private static final int ALL = TRACKED | ADDED | REMOVED | STAT;
+
+    /** Kinds of update */
+    private static final byte ENTRY = 1;
+    private static final byte SAVED = 2;
+
+    /** The least number of entries which may be appended without writing the index again */
+    private static final int TAIL_MIN = 256;
+    private static final int TAIL_RATIO = 16;
+
+    /**
+     * A file modified within this time before the StageArea is saved may be modified again
+     * without changing its modified time ("racily clean"), so its cached stat data is not trusted.
+     */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The state of a file in the staging area
+     * -- a staged file is tracked with the staged blob id
+     */
+    private static class Entry {
+        static final Entry NONE = new Entry(null, false, false, null);
+
+        final String trackedId;     // null: not tracked
+        final boolean added;        // staged for addition
+        final boolean removed;      // staged for removal
+        final FileStat stat;        // null: not cached
+
+        Entry(String trackedId, boolean added, boolean removed, FileStat stat) {
+            this.trackedId = trackedId;
+            this.added = added;
+            this.removed = removed;
+            this.stat = stat;
+        }
+
+        Entry withFiles(String trackedId, boolean added, boolean removed) {
+            return new Entry(trackedId, added, removed, this.stat);
+        }
 
-    // staged files
-    private HashMap<String, String> added = new HashMap<>();
+        Entry withStat(FileStat stat) {
+            return new Entry(this.trackedId, this.added, this.removed, stat);
+        }
 
-    // removed files
-    private ArrayList<String> removed = new ArrayList<>();
+        String addedId() {
+            return added ? trackedId : null;
+        }
 
-    // tracked files
-    private HashMap<String, String> tracked = new HashMap<>();
+        int flags() {
+            return (trackedId != null ? TRACKED : 0) | (added ? ADDED : 0)
+                    | (removed ? REMOVED : 0) | (stat != null ? STAT : 0);
+        }
+    }
 
     // non-argument constructor for StageArea
     public StageArea() {
-        this.added = new HashMap<>();
-        this.removed = new ArrayList<>();
-        this.tracked = new HashMap<>();
     }
 
     /**
-     * constructor for StageArea, which is called for every "git commit"
+     * constructor for StageArea with given tracked files
      * @param tracked_
      */
     public StageArea(HashMap<String, String> tracked_) {
-        this.added = new HashMap<>();
-        this.removed = new ArrayList<>();
-        this.tracked = new HashMap<>();
-        this.tracked.putAll(tracked_);
+        for (Map.Entry<String, String> entry : tracked_.entrySet()) {
+            changes.put(entry.getKey(), new Entry(entry.getValue(), false, false, null));
+        }
+    }
+
+    /**
+     * Returns the StageArea with given files
+     *
+     * @param tracked_  file path <--> blob id
+     * @param added_    file path <--> blob id of the staged files
+     * @param removed_  the files staged for removal
+     * @param stats_    file path <--> stat data (null: none)
+     * @return
+     */
+    static StageArea of(Map<String, String> tracked_, Map<String, String> added_,
+                        Collection<String> removed_, Map<String, FileStat> stats_) {
+        StageArea stageArea = new StageArea(new HashMap<>(tracked_));
+        for (Map.Entry<String, String> entry : added_.entrySet()) {
+            stageArea.changes.put(entry.getKey(), new Entry(entry.getValue(), true, false, null));
+        }
+        for (String path : removed_) {
+            Entry entry = stageArea.changes.getOrDefault(path, Entry.NONE);
+            stageArea.changes.put(path, entry.withFiles(entry.trackedId, entry.added, true));
+        }
+        if (stats_ != null) {
+            for (Map.Entry<String, FileStat> entry : stats_.entrySet()) {
+                stageArea.changes.put(entry.getKey(),
+                        stageArea.changes.getOrDefault(entry.getKey(), Entry.NONE).withStat(entry.getValue()));
+            }
+        }
+        return stageArea;
     }
 
     /**
-     * getter for this.added
+     * getter for the staged files
+     * file path <--> blob id, in the order of the paths
      * @return
      */
     public HashMap<String, String> getAdded() {
-        return this.added;
+        LinkedHashMap<String, String> files = new LinkedHashMap<>();
+        forEach(ADDED, (path, entry) -> files.put(path, entry.trackedId));
+        return files;
     }
 
     /**
-     * getter for this.removed
+     * getter for the files staged for removal, in the order of the paths
      * @return
      */
     public ArrayList<String> getRemoved() {
-        return this.removed;
+        ArrayList<String> files = new ArrayList<>();
+        forEach(REMOVED, (path, entry) -> files.add(path));
+        return files;
     }
 
     /**
-     * getter for this.tracked
+     * getter for the tracked files
+     * file path <--> blob id, in the order of the paths
      * @return
      */
     public HashMap<String, String> getTracked() {
-        return this.tracked;
+        LinkedHashMap<String, String> files = new LinkedHashMap<>();
+        forEach(TRACKED, (path, entry) -> files.put(path, entry.trackedId));
+        return files;
+    }
+
+    /**
+     * Returns the blob id of a tracked file
+     * -- if the file is not tracked -> return null
+     *
+     * @param path
+     * @return
+     */
+    public String getTrackedId(String path) {
+        return entry(path).trackedId;
+    }
+
+    /**
+     * Checks whether a file is staged for removal
+     *
+     * @param path
+     * @return
+     */
+    public boolean isRemoved(String path) {
+        return entry(path).removed;
+    }
+
+    /**
+     * Receives the files of the staging area (see forEachFile)
+     */
+    interface FileVisitor {
+        void visit(String path, String trackedId, boolean added, boolean removed);
+    }
+
+    /**
+     * Visits every file which is tracked or staged, in the order of the paths
+     *
+     * @param visitor
+     */
+    void forEachFile(FileVisitor visitor) {
+        forEach(TRACKED | ADDED | REMOVED,
+                (path, entry) -> visitor.visit(path, entry.trackedId, entry.added, entry.removed));
     }
 
     /**
@@ -86,6 +280,7 @@ public class StageArea implements Serializable {
      *          -> we can check it with sha-1 id
      *          -> substitute the file info in added list, tracked list with new info(blobId)
      *          -> save the newly-created blob for the changed file
+     *             (as a delta from the blob of the previous version, see Blob)
      *
      *      3) if the file with given file name exists and the contents remain the same
      *          -> do nothing
@@ -93,60 +288,132 @@ public class StageArea implements Serializable {
      * @param file
      */
     public void add(File file) {
-        // HashMap: https://codechacha.com/ko/java-map-hashmap/
         String newpath = file.getPath();
 
-        Blob newblob = new Blob(file);
-        String newblobId = newblob.getId();
-        String prevblobId = tracked.get(newpath);
+        FileStat stat = FileStat.of(file);
+        // saved only if it's a new blob (as a delta from the previous version if possible)
+        String newblobId = Blob.saveFile(file, getTrackedId(newpath));
+        if (stat != null) {
+            putStat(newpath, stat.withBlobId(newblobId));
+        }
+        stage(newpath, newblobId);
+    }
+
+    /**
+     * "git add" command for many files at once
+     *      1) a deleted file which is tracked -> staged for removal
+     *      2) a file identical to the version in the current commit
+     *          -> unstaged (no longer staged for addition or removal)
+     *      3) the other files -> staged as in add
+     *          -> their blobs are saved in parallel, in the pack if there are many (see Blob.saveFiles)
+     *
+     * @param files
+     * @param committed     file path <--> blob id in the current commit, of the given files (see Tree.lookUp)
+     * @return  whether this StageArea has been changed
+     */
+    public boolean addAll(Collection<File> files, HashMap<String, String> committed) {
+        lookUp(files);
+        boolean changed = false;
+        List<File> existing = new ArrayList<>();
+        for (File file : files) {
+            Entry entry = entry(file.getPath());
+            if (file.exists()) {
+                existing.add(file);
+            } else if (!entry.removed) {
+                put(file.getPath(), entry.withFiles(entry.trackedId, entry.added, true));
+                changed = true;
+            }
+        }
+
+        // a file which is neither committed nor staged is saved without being hashed first
+        List<File> known = new ArrayList<>();
+        List<File> toSave = new ArrayList<>();
+        for (File file : existing) {
+            String path = file.getPath();
+            (committed.containsKey(path) || entry(path).added ? known : toSave).add(file);
+        }
+        HashMap<String, String> ids = blobIds(known);
+        for (File file : known) {
+            String path = file.getPath();
+            String id = ids.get(path);
+            Entry entry = entry(path);
+            if (id != null && id.equals(committed.get(path))) {
+                changed |= entry.added || entry.removed;
+                put(path, entry.withFiles(id, false, false));
+            } else if (id == null || !id.equals(entry.addedId())) {
+                toSave.add(file);
+            } else if (entry.removed) {
+                put(path, entry.withFiles(entry.trackedId, entry.added, false));
+                changed = true;
+            }
+        }
+
+        // saved only if it's a new blob (as a delta from the previous version if possible)
+        // -- the stat data is taken before the file is read, so a later change is never missed
+        HashMap<String, FileStat> stats = new HashMap<>();
+        HashMap<String, String> bases = new HashMap<>();
+        for (File file : toSave) {
+            stats.put(file.getPath(), FileStat.of(file));
+            bases.put(file.getPath(), getTrackedId(file.getPath()));
+        }
+        Map<String, String> saved = Blob.saveFiles(toSave, bases);
+        for (File file : toSave) {
+            String path = file.getPath();
+            if (stats.get(path) != null) {
+                putStat(path, stats.get(path).withBlobId(saved.get(path)));
+            }
+            stage(path, saved.get(path));
+        }
+        return changed || !toSave.isEmpty();
+    }
+
+    /**
+     * Stages the new blob of a file (see add)
+     *
+     * @param newpath
+     * @param newblobId
+     */
+    private void stage(String newpath, String newblobId) {
+        Entry entry = entry(newpath);
+        String prevblobId = entry.trackedId;
 
         // case1: file doesn't exist (--> new file)
         if (prevblobId == null) {
-            added.put(newpath, newblobId);
-            tracked.put(newpath, newblobId);
-            newblob.saveBlob();
+            put(newpath, entry.withFiles(newblobId, true, entry.removed));
         }
 
         // case2: file exists but the contents changed
         else if (!prevblobId.equals(newblobId)) {
-            // delete previous information
-            added.remove(newpath);
-            removed.remove(newpath);
-            tracked.remove(newpath);
-
-            // update new information
-            added.put(newpath, newblobId);
-            tracked.put(newpath, newblobId);
-            newblob.saveBlob();
+            put(newpath, entry.withFiles(newblobId, true, false));
         }
 
         // case3: file exists and the contents unchanged -> do nothing
-        else {
-            removed.remove(newpath);
+        else if (entry.removed) {
+            put(newpath, entry.withFiles(prevblobId, entry.added, false));
         }
-
     }
 
 
     /**
      * "git rm" command
+     * -- a staged file is unstaged, and tracked again with its version in the current commit (if any)
      * @param file
+     * @param committed     file path <--> blob id in the current commit, of the given files (see Tree.lookUp)
      */
-    public void rm(File file) {
+    public void rm(File file, HashMap<String, String> committed) {
         String newpath = file.getPath();
-        String addedId = this.added.get(newpath);       // check whether it is staged
-        String trackedId = this.tracked.get(newpath);    // check whether it is tracked
+        Entry entry = entry(newpath);
+        String addedId = entry.addedId();           // check whether it is staged
+        String trackedId = entry.trackedId;         // check whether it is tracked
 
         // if the file is neither staged nor tracked by the head commit
         if (addedId == null && trackedId == null) {
-            System.out.println("No reason to remove the file");
-            System.exit(0);
+            throw Utils.error("No reason to remove the file");
         }
 
         // unstage the file if it is currently staged for addition
         if (addedId != null) {
-            added.remove(newpath);
-            tracked.remove(newpath);
+            put(newpath, entry.withFiles(committed.get(newpath), false, entry.removed));
             return;
         }
 
@@ -154,7 +421,7 @@ public class StageArea implements Serializable {
         // stage it for removal and remove the file from the working directory
         // if the user has not already done so
         if (trackedId != null) {
-            removed.add(newpath);
+            put(newpath, entry.withFiles(trackedId, false, true));
             // remove file from the working directory
             if (file.exists()) {
                 // how to remove file in Java? --> https://javacpro.tistory.com/27
@@ -165,30 +432,381 @@ public class StageArea implements Serializable {
 
     /**
      * Saves current StageArea inside the .gitlet folder
-     * -- "Persistence"
+     * -- "Persistence" (saved when the command ends, see Journal)
+     * -- the changed entries are appended, unless too many have been appended since the index was written
      */
     public void saveStage() {
-        Utils.writeObject(GITLET_STAGE, this);
+        this.savedAt = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (base == null || appended + dirty.size() > Math.max(TAIL_MIN, count / TAIL_RATIO)) {
+            byte[] data = encode();
+            Journal.write(GITLET_STAGE, data);
+            load(ByteBuffer.wrap(data));
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                for (String path : dirty) {
+                    out.writeByte(ENTRY);
+                    writeEntry(out, path, changes.get(path));
+                }
+                out.writeByte(SAVED);
+                out.writeLong(this.savedAt);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot save the staging area: %s", excp.getMessage());
+            }
+            Journal.append(GITLET_STAGE, bytes.toByteArray());
+            appended += dirty.size();
+            dirty.clear();
+        }
+        this.statsChanged = false;
     }
 
     /**
      * Loads current StageArea inside the .gitlet folder
      * --> can be used anywhere, since this is defined as "static"
+     * -- the index is mapped, and only its appended entries are read
      * @return
      */
     public static StageArea stageArea() {
-        StageArea stageArea = Utils.readObject(GITLET_STAGE, StageArea.class);
+        ByteBuffer data = Journal.map(GITLET_STAGE);
+        if (data == null || data.limit() <= MAGIC.length) {
+            throw Utils.error("Broken index.");
+        }
+        byte[] head = new byte[MAGIC.length + 1];
+        data.get(0, head);
+        if (Encoding.startsWith(head, Encoding.LEGACY)) {
+            StageArea old = Utils.deserialize(bytes(data), StageArea.class);
+            StageArea stageArea = of(old.tracked, old.added, old.removed, old.stats);
+            stageArea.savedAt = old.savedAt;
+            return stageArea;
+        }
+        if (!Encoding.startsWith(head, MAGIC)) {
+            throw Utils.error("Broken index.");
+        }
+        if (head[MAGIC.length] < FORMAT_VERSION) {
+            return decodeV1(bytes(data));
+        }
+        if (head[MAGIC.length] > FORMAT_VERSION) {
+            throw Utils.error("The index was saved by a newer version of gitlet (version %d).", head[MAGIC.length]);
+        }
+        StageArea stageArea = new StageArea();
+        stageArea.load(data);
+        return stageArea;
+    }
+
+    private static byte[] bytes(ByteBuffer data) {
+        byte[] bytes = new byte[data.limit()];
+        data.get(0, bytes);
+        return bytes;
+    }
+
+    /**
+     * Takes the index in given data as the sorted entries, and reads its appended entries
+     *
+     * @param data
+     */
+    private void load(ByteBuffer data) {
+        this.base = data;
+        this.savedAt = data.getLong(5);
+        this.count = data.getInt(13);
+        this.appended = 0;
+        this.changes = new TreeMap<>();
+        this.dirty = new HashSet<>();
+        this.found = new HashMap<>();
+        ByteBuffer in = data.duplicate().position(data.getInt(17));
+        while (in.hasRemaining()) {
+            if (in.get() == SAVED) {
+                this.savedAt = in.getLong();
+                continue;
+            }
+            int flags = in.get();
+            String path = readPath(in);
+            changes.put(path, readEntry(in, flags));
+            appended += 1;
+        }
+    }
+
+    /**
+     * Returns this StageArea in the binary format (with no appended entries)
+     *
+     * @return
+     */
+    private byte[] encode() {
+        List<String> paths = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        forEach(ALL, (path, entry) -> {
+            paths.add(path);
+            entries.add(entry);
+        });
+        int[] offsets = new int[paths.size()];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(this.savedAt);
+            out.writeInt(paths.size());
+            out.writeInt(0);    // end, set below
+            out.write(new byte[4 * paths.size()]);
+            for (int i = 0; i < paths.size(); i++) {
+                offsets[i] = out.size();
+                writeEntry(out, paths.get(i), entries.get(i));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot save the staging area: %s", excp.getMessage());
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+        data.putInt(17, data.limit());
+        data.position(HEADER_SIZE);
+        data.asIntBuffer().put(offsets);
+        return data.array();
+    }
+
+    private static void writeEntry(DataOutputStream out, String path, Entry entry) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(entry.flags());
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        if (entry.trackedId != null) {
+            out.write(ObjectStore.toRaw(entry.trackedId));
+        }
+        if (entry.stat != null) {
+            entry.stat.write(out, entry.trackedId);
+        }
+    }
+
+    private static String readPath(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the entry after its path
+     *
+     * @param in
+     * @param flags
+     * @return
+     */
+    private static Entry readEntry(ByteBuffer in, int flags) {
+        String trackedId = null;
+        if ((flags & TRACKED) != 0) {
+            byte[] raw = new byte[ObjectStore.RAW_LENGTH];
+            in.get(raw);
+            trackedId = ObjectStore.toHex(raw);
+        }
+        FileStat stat = (flags & STAT) != 0 ? FileStat.read(in, trackedId) : null;
+        return new Entry(trackedId, (flags & ADDED) != 0, (flags & REMOVED) != 0, stat);
+    }
+
+    private int offsetAt(int i) {
+        return base.getInt(HEADER_SIZE + 4 * i);
+    }
+
+    private String pathAt(int pos) {
+        return readPath(base.duplicate().position(pos + 1));
+    }
+
+    /**
+     * Returns the entry of a file: the changed one, or the one found in the sorted entries
+     * -- if the file is not in the staging area -> return Entry.NONE
+     *
+     * @param path
+     * @return
+     */
+    private Entry entry(String path) {
+        Entry entry = changes.get(path);
+        if (entry == null) {
+            entry = found.get(path);
+        }
+        if (entry == null) {
+            int i = base == null ? -1 : find(path);
+            entry = i < 0 ? Entry.NONE : entryAt(offsetAt(i));
+            found.put(path, entry);
+        }
+        return entry;
+    }
+
+    private Entry entryAt(int pos) {
+        ByteBuffer in = base.duplicate().position(pos);
+        int flags = in.get();
+        readPath(in);
+        return readEntry(in, flags);
+    }
+
+    /**
+     * Returns the position of a file in the sorted entries (binary search)
+     * -- if it is not found -> return -1
+     *
+     * @param path
+     * @return
+     */
+    private int find(String path) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = pathAt(offsetAt(mid)).compareTo(path);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the entries of many files at once
+     * -- if they are many, the sorted entries are read in one pass instead of being searched for each file
+     *
+     * @param files
+     */
+    private void lookUp(Collection<File> files) {
+        if (base == null || files.size() <= count / TAIL_RATIO) {
+            return;
+        }
+        HashSet<String> paths = new HashSet<>();
+        for (File file : files) {
+            if (!changes.containsKey(file.getPath()) && !found.containsKey(file.getPath())) {
+                paths.add(file.getPath());
+            }
+        }
+        if (paths.size() <= count / TAIL_RATIO) {
+            return;
+        }
+        ByteBuffer in = base.duplicate();
+        for (int i = 0; i < count; i++) {
+            in.position(offsetAt(i));
+            int flags = in.get();
+            String path = readPath(in);
+            if (paths.remove(path)) {
+                found.put(path, readEntry(in, flags));
+            }
+        }
+        for (String path : paths) {
+            found.put(path, Entry.NONE);
+        }
+    }
+
+    /**
+     * Calls ACTION for every file whose entry has one of the flags in MASK, in the order of the paths
+     * -- a sorted entry is read only if its flags match, and only if it has not been changed
+     *
+     * @param mask
+     * @param action
+     */
+    private void forEach(int mask, BiConsumer<String, Entry> action) {
+        BitSet replaced = new BitSet(count);
+        if (base != null) {
+            for (String path : changes.keySet()) {
+                int i = find(path);
+                if (i >= 0) {
+                    replaced.set(i);
+                }
+            }
+        }
+        Iterator<Map.Entry<String, Entry>> it = changes.entrySet().iterator();
+        Map.Entry<String, Entry> next = nextChange(it, mask);
+        ByteBuffer in = base == null ? null : base.duplicate();
+        for (int i = 0; i < count; i++) {
+            in.position(offsetAt(i));
+            int flags = in.get();
+            if (replaced.get(i) || (flags & mask) == 0) {
+                continue;
+            }
+            String path = readPath(in);
+            while (next != null && next.getKey().compareTo(path) < 0) {
+                action.accept(next.getKey(), next.getValue());
+                next = nextChange(it, mask);
+            }
+            action.accept(path, readEntry(in, flags));
+        }
+        while (next != null) {
+            action.accept(next.getKey(), next.getValue());
+            next = nextChange(it, mask);
+        }
+    }
+
+    private static Map.Entry<String, Entry> nextChange(Iterator<Map.Entry<String, Entry>> it, int mask) {
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> next = it.next();
+            if ((next.getValue().flags() & mask) != 0) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Changes the entry of a file, which is appended when this StageArea is saved
+     *
+     * @param path
+     * @param entry
+     */
+    private void put(String path, Entry entry) {
+        changes.put(path, entry);
+        dirty.add(path);
+    }
+
+    /**
+     * Returns the StageArea in the binary format of version 1
+     *      "GIDX" | version(1 byte) | savedAt(varint) | paths of every file below
+     *          | tracked: N(varint) | { path | blob id }*
+     *          | added  : N(varint) | { path | blob id }*
+     *          | removed: N(varint) | { path }*
+     *          | stats  : N(varint) | { path | stat data (see FileStat.encode) }*
+     *                   (the blob id of a stat data is usually the tracked one, which is not written again)
+     *      - path: the position of the path in the path table (varint)
+     *
+     * @param data
+     * @return
+     */
+    private static StageArea decodeV1(byte[] data) {
+        Encoding.Reader in = new Encoding.Reader(data, MAGIC, FORMAT_VERSION, "index");
+        long savedAt = in.readVarint();
+        in.readPaths();
+        HashMap<String, String> tracked = readFiles(in);
+        HashMap<String, String> added = readFiles(in);
+        int n = in.readCount();
+        List<String> removed = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            removed.add(in.readPath());
+        }
+        n = in.readCount();
+        HashMap<String, FileStat> stats = new HashMap<>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; i++) {
+            String path = in.readPath();
+            stats.put(path, FileStat.decode(in, tracked.get(path)));
+        }
+        StageArea stageArea = of(tracked, added, removed, stats);
+        stageArea.savedAt = savedAt;
         return stageArea;
     }
 
+    /**
+     * Reads the pairs of file path <--> blob id
+     *
+     * @param in
+     * @return
+     */
+    private static HashMap<String, String> readFiles(Encoding.Reader in) {
+        int n = in.readCount();
+        HashMap<String, String> files = new HashMap<>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; i++) {
+            files.put(in.readPath(), in.readId());
+        }
+        return files;
+    }
+
     /**
      * Checks whether the current StageArea has nothing to do for the staged / removed files
      * @return
      */
     public boolean notStaged() {
-        boolean a = this.added.isEmpty();
-        boolean b = this.removed.isEmpty();
-        return a && b;
+        boolean[] staged = new boolean[1];
+        forEach(ADDED | REMOVED, (path, entry) -> staged[0] = true);
+        return !staged[0];
     }
 
     /**
@@ -201,22 +819,130 @@ public class StageArea implements Serializable {
      */
     public HashMap<String, String> getTrackedCommit() {
         HashMap<String, String> fmap = new HashMap<String, String>();
-        fmap.putAll(this.tracked);  // addition
-        for (String file : this.removed) {
-            fmap.remove(file);  // removal
-        }
+        forEach(TRACKED, (path, entry) -> {
+            if (!entry.removed) {
+                fmap.put(path, entry.trackedId);
+            }
+        });
         return fmap;
     }
 
     /**
-     * Resets current StageArea
+     * Resets current StageArea after its staged files have been committed
      * - vacate added list and removed list
      * - tracked file list must be preserved even when a new commit is created.
+     *
+     * @param changes   file path <--> blob id in the new commit (null: removed), i.e. the staged files
+     */
+    public static void resetStageArea(Map<String, String> changes) {
+        StageArea sa = stageArea();     // the stat cache is still valid
+        sa.resetTo(changes, getCurrBranch().getPointer().getTreeId());
+        sa.saveStage();
+    }
+
+    /**
+     * Resets this StageArea to the files of a commit which has been checked out or committed
+     * -- the stat cache is kept (see cacheStat for the files written by the checkout)
+     * -- only the entries of the files which differ from the commit are changed,
+     *    without the whole file list of the commit (see Commit.getfmap):
+     *      1) the files changed from the current commit -> tracked with their versions in CHANGES
+     *      2) the other staged files -> unstaged, tracked with their versions in the commit (see Tree.lookUp)
+     *    every other entry tracks its version in the current commit, which is the same in the new one
+     *
+     * @param changes   file path <--> blob id in the commit (null: not in the commit)
+     *                  for every file which differs from the current commit (e.g. Tree.diff)
+     * @param treeId    the tree of the commit
+     */
+    public void resetTo(Map<String, String> changes, String treeId) {
+        List<String> staged = new ArrayList<>();
+        forEach(ADDED | REMOVED, (path, entry) -> {
+            if (!changes.containsKey(path)) {
+                staged.add(path);
+            }
+        });
+        HashMap<String, String> committed = Tree.lookUp(treeId, staged);
+        for (String path : staged) {
+            put(path, entry(path).withFiles(committed.get(path), false, false));
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            Entry entry = entry(change.getKey());
+            if (entry.added || entry.removed || !Objects.equals(change.getValue(), entry.trackedId)) {
+                put(change.getKey(), entry.withFiles(change.getValue(), false, false));
+            }
+        }
+    }
+
+    /**
+     * Caches the stat data of a file which has just been written or deleted
+     *
+     * @param file
+     * @param blobId    the blob id of the contents written (null: the file has been deleted)
+     */
+    public void cacheStat(File file, String blobId) {
+        FileStat stat = blobId == null ? null : FileStat.of(file);
+        if (stat != null) {
+            putStat(file.getPath(), stat.withBlobId(blobId));
+        } else if (entry(file.getPath()).stat != null) {
+            put(file.getPath(), entry(file.getPath()).withStat(null));
+            this.statsChanged = true;
+        }
+    }
+
+    /**
+     * Returns the blob ids of given files in the working directory
+     * file path <--> blob id
+     *      1) the files whose stat data is the same as the cached one
+     *          -> the cached blob id is used (the file is not read at all)
+     *      2) the other files
+     *          -> read and hashed in parallel (fork-join), and their stat data is cached
+     * Files which don't exist are left out.
+     *
+     * @param files
+     * @return
+     */
+    public HashMap<String, String> blobIds(List<File> files) {
+        lookUp(files);
+        HashMap<String, String> ids = new HashMap<>();
+        HashMap<String, FileStat> changed = new HashMap<>();
+        for (File file : files) {
+            String path = file.getPath();
+            FileStat stat = FileStat.of(file);
+            FileStat cached = entry(path).stat;
+            if (stat == null) {
+                continue;
+            }
+            if (stat.sameStat(cached) && cached.getMtime() + RACY_NANOS < this.savedAt) {
+                ids.put(path, cached.getBlobId());
+            } else {
+                changed.put(path, stat);
+            }
+        }
+
+        Map<String, String> hashed = changed.keySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(path -> path, path -> Blob.generateId(new File(path))));
+        for (Map.Entry<String, String> entry : hashed.entrySet()) {
+            ids.put(entry.getKey(), entry.getValue());
+            putStat(entry.getKey(), changed.get(entry.getKey()).withBlobId(entry.getValue()));
+        }
+        return ids;
+    }
+
+    /**
+     * Caches the stat data for given file path
+     * @param path
+     * @param stat
+     */
+    private void putStat(String path, FileStat stat) {
+        put(path, entry(path).withStat(stat));
+        this.statsChanged = true;
+    }
+
+    /**
+     * Checks whether the stat cache has been changed since this StageArea was loaded
+     * @return
      */
-    public static void resetStageArea() {
-        HashMap<String, String> fmap_ = getCurrBranch().getPointer().getfmap();
-        StageArea newSA = new StageArea(fmap_);
-        newSA.saveStage();
+    public boolean statsChanged() {
+        return this.statsChanged;
     }
 
     /**
@@ -228,9 +954,9 @@ public class StageArea implements Serializable {
     public String toString() {
         String temp = "";
         temp += "[STAGING AREA]\n";
-        temp += "<added>" + "\n" + hashMapToString(this.added) + "\n";
-        temp += "<removed>" + "\n" + arrayListToString(this.removed) + "\n";
-        temp += "<tracked>" + "\n" + hashMapToString(this.tracked);
+        temp += "<added>" + "\n" + hashMapToString(getAdded()) + "\n";
+        temp += "<removed>" + "\n" + arrayListToString(getRemoved()) + "\n";
+        temp += "<tracked>" + "\n" + hashMapToString(getTracked());
         return temp;
     }
 
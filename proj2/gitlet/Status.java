@@ -0,0 +1,142 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.getRelativePath;
+
+/**
+ * Status
+ *  The state of the files for "status", found in a single walk which merges two lists sorted by path:
+ *      the entries of the staging area  x  the files of the working directory
+ *  so each path is visited once, with no lookup of a path in another list.
+ *  Whether a file is in the current commit comes from its entry: every file of the commit has one,
+ *  and an entry which is not staged for addition tracks the version in the commit. Only the files staged
+ *  for addition are looked up in the tree of the commit (see Tree.lookUp), never its whole file list.
+ *  Each file is:
+ *      - staged / removed: the entry is staged for addition / removal
+ *      - untracked: a working file which is neither in the commit nor tracked in the staging area
+ *      - modified / deleted: a tracked file whose working version is not the one in the staging area
+ *        (a staged file is compared with its staged version, not with the one in the commit)
+ *  The lists come out sorted by path, as relative paths.
+ *
+ *  The working versions of the tracked files are found only when they are asked for (see modified),
+ *  with the stat cache of the staging area.
+ *
+ * @author Gaon Choi
+ */
+class Status {
+    final List<String> staged = new ArrayList<>();
+    final List<String> removed = new ArrayList<>();
+    final List<String> untracked = new ArrayList<>();
+
+    private final StageArea sa;
+
+    /** The tracked files which are not staged for removal, with their blob ids in the staging area */
+    private final List<String> trackedPaths = new ArrayList<>();
+    private final List<String> trackedIds = new ArrayList<>();
+
+    /** The files staged for addition which are in the current commit */
+    private final HashSet<String> committed;
+
+    /** The working files (absolute paths), and the next one (null: none left) */
+    private final Iterator<String> working = Walker.files().iterator();
+    private String nextWorking;
+
+    private Status(StageArea sa, String treeId) {
+        this.sa = sa;
+        this.committed = new HashSet<>(Tree.lookUp(treeId, sa.getAdded().keySet()).keySet());
+        advanceWorking();
+    }
+
+    /**
+     * Returns the status of the working directory
+     *
+     * @param sa
+     * @param treeId    the tree of the current commit
+     * @return
+     */
+    static Status of(StageArea sa, String treeId) {
+        Status status = new Status(sa, treeId);
+        sa.forEachFile(status::visit);
+        status.skipWorking(null);
+        return status;
+    }
+
+    /**
+     * Visits the entry of a file in the staging area (in the order of the paths)
+     *
+     * @param path
+     * @param trackedId
+     * @param added
+     * @param removed_
+     */
+    private void visit(String path, String trackedId, boolean added, boolean removed_) {
+        skipWorking(path);
+        boolean inWorking = path.equals(nextWorking);
+        if (inWorking) {
+            advanceWorking();
+        }
+        boolean inCommit = added ? committed.contains(path) : trackedId != null;
+
+        if (added) {
+            staged.add(getRelativePath(path));
+        }
+        if (removed_) {
+            removed.add(getRelativePath(path));
+        } else if (trackedId != null) {
+            trackedPaths.add(path);
+            trackedIds.add(trackedId);
+        }
+        if (inWorking && trackedId == null && !removed_ && !inCommit) {
+            untracked.add(getRelativePath(path));
+        }
+    }
+
+    /**
+     * Visits the working files before given path, which have no entry in the staging area (untracked)
+     *
+     * @param path  (null: every working file left)
+     */
+    private void skipWorking(String path) {
+        while (nextWorking != null && (path == null || nextWorking.compareTo(path) < 0)) {
+            untracked.add(getRelativePath(nextWorking));    // not in the commit, which has an entry for each file
+            advanceWorking();
+        }
+    }
+
+    private void advanceWorking() {
+        nextWorking = working.hasNext() ? Utils.join(CWD, working.next()).getPath() : null;
+    }
+
+    /**
+     * Returns the tracked files which are modified or deleted in the working directory, sorted
+     * e.g. "a.txt (modified)", "b.txt (deleted)"
+     * -- the files with the same stat data as cached are not read (see StageArea.blobIds)
+     *
+     * @return
+     */
+    List<String> modified() {
+        List<File> files = new ArrayList<>(trackedPaths.size());
+        for (String path : trackedPaths) {
+            files.add(new File(path));
+        }
+        HashMap<String, String> blobIds = sa.blobIds(files);
+
+        List<String> modified = new ArrayList<>();
+        for (int i = 0; i < trackedPaths.size(); i++) {
+            String blobId = blobIds.get(trackedPaths.get(i));
+            if (blobId != null && !blobId.equals(trackedIds.get(i))) {
+                modified.add(getRelativePath(trackedPaths.get(i)) + " (modified)");
+            } else if (blobId == null && !files.get(i).exists()) {
+                modified.add(getRelativePath(trackedPaths.get(i)) + " (deleted)");
+            }
+        }
+        return modified;
+    }
+}
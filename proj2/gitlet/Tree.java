@@ -0,0 +1,290 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Repository.CWD;
+
+/**
+ * Tree
+ *  The files of a directory in a commit:
+ *      name <--> blob id (a file), or name <--> id of another tree (a subdirectory)
+ *
+ *  A commit only keeps the id of the tree of the working directory (see Commit).
+ *  A tree is saved as an object by the sha-1 id of its contents,
+ *  so an unchanged directory has the same tree in every commit, and is saved only once:
+ *  a new commit saves the trees of the directories on the paths of the changed files only.
+ *
+ *  Binary format (see Encoding)
+ *      "TREE" | version(1 byte) | N(varint) | { kind(1 byte) | name(string) | id }*
+ *      - sorted by name
+ *      - kind: 0 = blob, 1 = tree
+ *
+ *  The paths inside a tree are relative to the working directory and separated by '/',
+ *  while the file lists of the other classes are keyed by the absolute paths of the files.
+ *
+ * @author Gaon Choi
+ */
+class Tree {
+    private static final byte[] MAGIC = {'T', 'R', 'E', 'E'};
+    private static final int FORMAT_VERSION = 1;
+
+    /** Kinds of entry */
+    private static final int BLOB = 0;
+    private static final int TREE = 1;
+
+    /** An entry of a tree */
+    private static class Entry {
+        final int kind;
+        final String id;
+
+        Entry(int kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+
+    /** name <--> entry (sorted by name) */
+    private final TreeMap<String, Entry> entries;
+
+    private Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Saves the tree of given files, and returns its id
+     *
+     * @param files     absolute file path <--> blob id
+     * @return
+     */
+    static String write(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /**
+     * Saves the tree which is given tree with the changes of some files, and returns its id
+     * -- only the trees of the directories with a changed file are saved again
+     *
+     * @param id        the id of the tree to be changed (null: an empty tree)
+     * @param changes   absolute file path <--> new blob id (null: the file is removed)
+     * @return
+     */
+    static String update(String id, Map<String, String> changes) {
+        TreeMap<String, String> relative = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            relative.put(relativePath(change.getKey()), change.getValue());
+        }
+        String result = update(id, relative);
+        return result != null ? result : new Tree(new TreeMap<>()).save();
+    }
+
+    /**
+     * Returns the files in the tree with given id
+     *
+     * @param id
+     * @return  absolute file path <--> blob id
+     */
+    static HashMap<String, String> files(String id) {
+        HashMap<String, String> files = new HashMap<>();
+        ArrayDeque<String[]> pending = new ArrayDeque<>();
+        pending.push(new String[] {id, CWD.getPath() + File.separator});
+        while (!pending.isEmpty()) {
+            String[] next = pending.pop();
+            for (Map.Entry<String, Entry> entry : load(next[0]).entries.entrySet()) {
+                String path = next[1] + entry.getKey();
+                if (entry.getValue().kind == TREE) {
+                    pending.push(new String[] {entry.getValue().id, path + File.separator});
+                } else {
+                    files.put(path, entry.getValue().id);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns the blob ids of given files in the tree with given id
+     * -- only the trees of the directories on the paths are loaded, not the whole tree (see files)
+     *
+     * @param id
+     * @param paths     absolute file paths
+     * @return  absolute file path <--> blob id (the files which are not in the tree are left out)
+     */
+    static HashMap<String, String> lookUp(String id, Collection<String> paths) {
+        HashMap<String, String> files = new HashMap<>();
+        for (String path : paths) {
+            String[] names = relativePath(path).split("/");
+            Tree tree = load(id);
+            for (int i = 0; i < names.length && tree != null; i++) {
+                Entry entry = tree.entries.get(names[i]);
+                tree = null;
+                if (entry != null && entry.kind == TREE && i < names.length - 1) {
+                    tree = load(entry.id);
+                } else if (entry != null && entry.kind == BLOB && i == names.length - 1) {
+                    files.put(path, entry.id);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Adds the ids of the subtrees and of the blobs in the tree with given id (not recursively)
+     *
+     * @param id
+     * @param trees
+     * @param blobs
+     */
+    static void references(String id, Collection<String> trees, Collection<String> blobs) {
+        for (Entry entry : load(id).entries.values()) {
+            (entry.kind == TREE ? trees : blobs).add(entry.id);
+        }
+    }
+
+    /**
+     * Returns the files which differ between two trees
+     * -- a subdirectory with the same tree id in both is skipped without being loaded,
+     *    so the cost depends on the number of changed directories, not on the number of files
+     *
+     * @param fromId
+     * @param toId
+     * @return  absolute file path <--> blob id in the tree TOID (null: the file is not in TOID)
+     */
+    static HashMap<String, String> diff(String fromId, String toId) {
+        HashMap<String, String> changes = new HashMap<>();
+        diff(fromId, toId, CWD.getPath() + File.separator, changes);
+        return changes;
+    }
+
+    private static void diff(String fromId, String toId, String prefix, HashMap<String, String> changes) {
+        if (fromId != null && fromId.equals(toId)) {
+            return;
+        }
+        TreeMap<String, Entry> from = fromId == null ? new TreeMap<>() : load(fromId).entries;
+        TreeMap<String, Entry> to = toId == null ? new TreeMap<>() : load(toId).entries;
+        TreeSet<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to.keySet());
+        for (String name : names) {
+            Entry a = from.get(name);
+            Entry b = to.get(name);
+            String path = prefix + name;
+            String aTree = a != null && a.kind == TREE ? a.id : null;
+            String bTree = b != null && b.kind == TREE ? b.id : null;
+            if (aTree != null || bTree != null) {
+                diff(aTree, bTree, path + File.separator, changes);
+            }
+            String aBlob = a != null && a.kind == BLOB ? a.id : null;
+            String bBlob = b != null && b.kind == BLOB ? b.id : null;
+            if (!Objects.equals(aBlob, bBlob)) {
+                changes.put(path, bBlob);
+            }
+        }
+    }
+
+    /**
+     * Applies the changes to the tree with given id
+     * -- if the tree becomes empty -> return null (an empty directory is not saved)
+     *
+     * @param id        (null: an empty tree)
+     * @param changes   path relative to this tree <--> new blob id (null: removed)
+     * @return
+     */
+    private static String update(String id, TreeMap<String, String> changes) {
+        TreeMap<String, Entry> entries = id == null ? new TreeMap<>() : new TreeMap<>(load(id).entries);
+        TreeMap<String, TreeMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash), name -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() != null) {
+                entries.put(path, new Entry(BLOB, change.getValue()));
+            } else if (entries.containsKey(path) && entries.get(path).kind == BLOB) {
+                entries.remove(path);
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> subdir : subdirs.entrySet()) {
+            Entry old = entries.get(subdir.getKey());
+            String subId = update(old != null && old.kind == TREE ? old.id : null, subdir.getValue());
+            if (subId != null) {
+                entries.put(subdir.getKey(), new Entry(TREE, subId));
+            } else if (old != null && old.kind == TREE) {
+                entries.remove(subdir.getKey());
+            }
+        }
+        return entries.isEmpty() ? null : new Tree(entries).save();
+    }
+
+    /**
+     * Returns the path of given file relative to the working directory, separated by '/'
+     *
+     * @param path
+     * @return
+     */
+    private static String relativePath(String path) {
+        return Repository.getRelativePath(path).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Loads the tree with given id
+     * -- each tree is decoded at most once per command, unless evicted (see ObjectCache)
+     *
+     * @param id
+     * @return
+     */
+    private static Tree load(String id) {
+        Tree tree = ObjectCache.get(id, Tree.class);
+        if (tree == null) {
+            tree = decode(ObjectStore.readBytes(id));
+            ObjectCache.put(id, tree, tree.approxSize());
+        }
+        return tree;
+    }
+
+    /**
+     * Saves this tree, and returns its id
+     *
+     * @return
+     */
+    private String save() {
+        byte[] data = encode();
+        String id = Utils.sha1("tree ", data);
+        ObjectStore.writeBytes(id, data);
+        ObjectCache.put(id, this, approxSize());
+        return id;
+    }
+
+    private long approxSize() {
+        return 64 + 160L * entries.size();
+    }
+
+    private byte[] encode() {
+        Encoding.Writer out = new Encoding.Writer(MAGIC, FORMAT_VERSION);
+        out.writeVarint(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.writeByte(entry.getValue().kind);
+            out.writeString(entry.getKey());
+            out.writeId(entry.getValue().id);
+        }
+        return out.toByteArray();
+    }
+
+    private static Tree decode(byte[] data) {
+        Encoding.Reader in = new Encoding.Reader(data, MAGIC, FORMAT_VERSION, "tree");
+        int n = in.readCount();
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            int kind = in.readByte();
+            String name = in.readString();
+            entries.put(name, new Entry(kind, in.readId()));
+        }
+        return new Tree(entries);
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -220,6 +221,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from DATA, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -246,8 +263,19 @@ class Utils {
      */
     public static void validateNumArgs(String cmd, String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Checks the number of arguments for a method which takes N or more arguments.
+     * @param cmd
+     * @param args
+     * @param n
+     */
+    public static void validateMinArgs(String cmd, String[] args, int n) {
+        if (args.length < n) {
+            throw error("Incorrect operands.");
         }
     }
 }
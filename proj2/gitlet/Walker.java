@@ -0,0 +1,265 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static gitlet.Repository.CWD;
+import static gitlet.Repository.GITLET_DIR;
+
+/**
+ * Walker
+ *  Walks the files of the working directory, in the sorted order of their relative paths,
+ *  leaving out .gitlet and the files ignored by .gitletignore (see Ignore).
+ *
+ *  The paths are produced one at a time (an Iterator), so a walk keeps only the listings
+ *  of the directories on the current path and of the directories read ahead, never the whole tree:
+ *      - the directories are walked depth-first, each listing sorted by name
+ *        (a directory sorts as its name followed by '/', so the paths come out sorted as strings)
+ *      - the next directories to be walked (up to READ_AHEAD) are listed in advance by a pool of threads,
+ *        so the listing and the stat calls of many directories overlap
+ *
+ * @author Gaon Choi
+ */
+class Walker implements Iterator<String> {
+    /** The number of directories which are listed in advance */
+    private static final int READ_AHEAD = 256;
+
+    /** The threads listing the directories (I/O bound, so more than the processors) */
+    private static final int THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static ExecutorService pool;
+
+    /** An entry of a directory */
+    private static class Entry {
+        final String name;
+        final boolean isDir;
+
+        /** The ignore state of a directory */
+        final Ignore.State state;
+
+        /** The name, followed by '/' for a directory */
+        final String sortKey;
+
+        /** The listing of a directory, if it is listed in advance */
+        Future<Entry[]> listing;
+
+        Entry(String name, boolean isDir, Ignore.State state) {
+            this.name = name;
+            this.isDir = isDir;
+            this.state = state;
+            this.sortKey = isDir ? name + "/" : name;
+        }
+    }
+
+    /** A directory being walked */
+    private static class Frame {
+        /** The relative path of the directory followed by a separator ("" for the working directory) */
+        final String prefix;
+        final Entry[] entries;
+
+        /** The next entry to be walked */
+        int pos;
+
+        /** The next entry to be checked for listing in advance */
+        int ahead;
+
+        Frame(String prefix, Entry[] entries) {
+            this.prefix = prefix;
+            this.entries = entries;
+        }
+    }
+
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+
+    /** The number of the directories listed in advance and not walked yet */
+    private int pending;
+
+    /** The next path (null: not found yet) */
+    private String next;
+
+    private Walker(String dir) {
+        Ignore.State state = Ignore.load().start();
+        String prefix = "";
+        for (String name : dir.split(Pattern.quote(File.separator))) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            state = state.next(name);
+            if (state.ignored(true) || (prefix.isEmpty() && name.equals(GITLET_DIR.getName()))) {
+                return;
+            }
+            prefix = prefix + name + File.separator;
+        }
+        stack.push(new Frame(prefix, list(prefix, state)));
+        readAhead();
+    }
+
+    /**
+     * Returns the paths of the files in the working directory, relative to it (sorted)
+     *
+     * @return
+     */
+    static Iterable<String> files() {
+        return files("");
+    }
+
+    /**
+     * Returns the paths of the files in given directory, relative to the working directory (sorted)
+     *
+     * @param dir   relative to the working directory ("": the working directory)
+     * @return
+     */
+    static Iterable<String> files(String dir) {
+        return () -> new Walker(dir);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.pos == frame.entries.length) {
+                stack.pop();
+                continue;
+            }
+            Entry entry = frame.entries[frame.pos++];
+            String path = frame.prefix + entry.name;
+            if (!entry.isDir) {
+                next = path;
+            } else {
+                stack.push(new Frame(path + File.separator, listing(entry, path + File.separator)));
+                readAhead();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String path = next;
+        next = null;
+        return path;
+    }
+
+    /**
+     * Returns the listing of a directory entry, waiting for it if it is being listed in advance
+     *
+     * @param entry
+     * @param prefix
+     * @return
+     */
+    private Entry[] listing(Entry entry, String prefix) {
+        if (entry.listing == null) {
+            return list(prefix, entry.state);
+        }
+        pending -= 1;
+        try {
+            return entry.listing.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while reading %s.", prefix);
+        } catch (ExecutionException excp) {
+            throw excp.getCause() instanceof RuntimeException
+                    ? (RuntimeException) excp.getCause()
+                    : Utils.error("Cannot read %s.", prefix);
+        } finally {
+            entry.listing = null;
+        }
+    }
+
+    /**
+     * Starts listing the next directories to be walked (in the order of the walk), up to READ_AHEAD
+     */
+    private void readAhead() {
+        for (Frame frame : stack) {     // the deepest directory first
+            frame.ahead = Math.max(frame.ahead, frame.pos);
+            while (frame.ahead < frame.entries.length) {
+                if (pending >= READ_AHEAD) {
+                    return;
+                }
+                Entry entry = frame.entries[frame.ahead++];
+                if (entry.isDir && entry.listing == null) {
+                    String prefix = frame.prefix + entry.name + File.separator;
+                    entry.listing = pool().submit(() -> list(prefix, entry.state));
+                    pending += 1;
+                }
+            }
+        }
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(THREADS, task -> {
+                Thread thread = new Thread(task, "gitlet-walker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Lists the files and the subdirectories of a directory, sorted, without the ignored ones
+     * -- a symbolic link is a file if it links to a file; links to directories are not followed
+     *
+     * @param prefix    the relative path of the directory followed by a separator
+     * @param state     the ignore state of the directory
+     * @return
+     */
+    private static Entry[] list(String prefix, Ignore.State state) {
+        Path dir = prefix.isEmpty() ? CWD.toPath() : CWD.toPath().resolve(prefix);
+        boolean top = prefix.isEmpty();
+        List<Entry> entries = new ArrayList<>();
+        try {
+            Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String name = file.getFileName().toString();
+                    boolean isDir = attrs.isDirectory();
+                    if (!isDir && !attrs.isRegularFile()
+                            && !(attrs.isSymbolicLink() && Files.isRegularFile(file))) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (top && isDir && name.equals(GITLET_DIR.getName())) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Ignore.State child = state.next(name);
+                    if (!child.ignored(isDir)) {
+                        entries.add(new Entry(name, isDir, isDir ? child : null));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException excp) {
+                    return FileVisitResult.CONTINUE;    // e.g. removed while walking, or not readable
+                }
+            });
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s: %s", dir, excp.getMessage());
+        }
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, Comparator.comparing(entry -> entry.sortKey));
+        return sorted;
+    }
+}